@@ -0,0 +1,40 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FindMarkedBenchmark extends StorageBenchmarkState {
+
+    @Param({"DIRECT", "WALK"})
+    public MarkerLookup lookup;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        setUpService();
+        createObjects();
+        service.markDelete(prefix, null, false).await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tearDownService();
+    }
+
+    @Benchmark
+    public List<Path> findMarked() {
+        return service.findMarked(prefix, null, ".DELETED", lookup).collectList().await();
+    }
+}
@@ -0,0 +1,48 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dry run lists and sizes every object, a real delete also removes them. The objects and the marker are
+ * created again before each invocation, outside of the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FinishDeleteBenchmark extends StorageBenchmarkState {
+
+    @Param({"true", "false"})
+    public boolean dryRun;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        setUpService();
+    }
+
+    @Setup(Level.Invocation)
+    public void createMarkedObjects() throws IOException {
+        deleteObjects();
+        createObjects();
+        service.markDelete(prefix, null, dryRun).await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tearDownService();
+    }
+
+    @Benchmark
+    public List<PathAndSize> finishDelete() {
+        return service.finishDelete(prefix, null, dryRun).collectList().await();
+    }
+}
@@ -0,0 +1,32 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import io.helidon.common.reactive.Single;
+import io.helidon.config.Config;
+
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link TestableStorageService} that sleeps before every storage call to mimic GCS round trips.
+ */
+class LatencyInjectingStorageService extends TestableStorageService {
+
+    private final long latencyMillis;
+
+    LatencyInjectingStorageService(Executor executor, Config config, long latencyMillis) {
+        super(executor, config);
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    <T> Single<T> ioAsync(Path path, Callable<T> call) {
+        if (latencyMillis <= 0) {
+            return super.ioAsync(path, call);
+        }
+        return super.ioAsync(path, () -> {
+            Thread.sleep(latencyMillis);
+            return call.call();
+        });
+    }
+}
@@ -0,0 +1,44 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MarkDeleteBenchmark extends StorageBenchmarkState {
+
+    @Param({"false", "true"})
+    public boolean dryRun;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        setUpService();
+        createObjects();
+    }
+
+    @Setup(Level.Invocation)
+    public void removeMarker() throws IOException {
+        Files.deleteIfExists(version.resolve(dryRun ? ".DRYRUNDELETE" : ".DELETED"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        tearDownService();
+    }
+
+    @Benchmark
+    public Path markDelete() {
+        return service.markDelete(prefix, null, dryRun).await();
+    }
+}
@@ -0,0 +1,109 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import io.helidon.config.Config;
+import io.helidon.config.ConfigSources;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Common parameters and data set up for the {@link StorageService} benchmarks.
+ * <p>
+ * The gs backend runs on LocalStorageHelper, which is not thread safe, and therefore uses a single I/O
+ * thread. The file backend runs on a temporary directory of the local file system.
+ */
+@State(Scope.Benchmark)
+public abstract class StorageBenchmarkState {
+
+    @Param({"gs", "file"})
+    public String backend;
+
+    @Param({"100", "1000"})
+    public int objects;
+
+    /**
+     * Number of sub directories the objects are spread over, 0 puts all objects directly in the version.
+     */
+    @Param({"0", "10"})
+    public int fanOut;
+
+    /**
+     * Latency added to every storage call.
+     */
+    @Param({"0"})
+    public long latencyMillis;
+
+    StorageService service;
+    ExecutorService executor;
+    FileSystem fileSystem;
+    Path version;
+    URI prefix;
+    private Path temporaryDirectory;
+
+    void setUpService() throws IOException {
+        executor = "gs".equals(backend) ? Executors.newSingleThreadExecutor() : Executors.newFixedThreadPool(8);
+        var config = Config.builder()
+                .addSource(ConfigSources.create(Map.of("storage.listing.parallelism", "4")))
+                .build();
+        var testable = new LatencyInjectingStorageService(executor, config, latencyMillis);
+        service = testable;
+        if ("gs".equals(backend)) {
+            fileSystem = testable.getFileSystem("benchmark");
+            version = fileSystem.getPath("/dataset/1");
+            prefix = URI.create("gs://benchmark/dataset/1");
+        } else {
+            fileSystem = FileSystems.getDefault();
+            temporaryDirectory = Files.createTempDirectory("storage-benchmark");
+            version = temporaryDirectory.resolve("dataset/1");
+            prefix = version.toUri();
+        }
+    }
+
+    void createObjects() throws IOException {
+        var content = new byte[128];
+        for (int i = 0; i < objects; i++) {
+            var directory = fanOut > 0 ? version.resolve("partition=" + (i % fanOut)) : version;
+            Files.createDirectories(directory);
+            Files.write(directory.resolve("part-" + i + ".parquet"), content);
+        }
+    }
+
+    void deleteObjects() throws IOException {
+        if (!Files.exists(version)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(version)) {
+            // GCS directories are only prefixes of the objects and go away with them.
+            paths.sorted(Comparator.reverseOrder())
+                    .filter(path -> "file".equals(backend) || Files.isRegularFile(path))
+                    .forEach(path -> {
+                        try {
+                            Files.deleteIfExists(path);
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+        }
+    }
+
+    void tearDownService() throws IOException {
+        deleteObjects();
+        if (temporaryDirectory != null) {
+            Files.deleteIfExists(version.getParent());
+            Files.deleteIfExists(temporaryDirectory);
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,27 @@
+package no.ssb.dapla.datamaintenance;
+
+import io.helidon.metrics.RegistryFactory;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+/**
+ * Expose internal counters in the application metric registry.
+ */
+public final class ApplicationMetrics {
+
+    private ApplicationMetrics() {
+    }
+
+    static MetricRegistry registry() {
+        return RegistryFactory.getInstance().getRegistry(MetricRegistry.Type.APPLICATION);
+    }
+
+    /**
+     * Register a gauge, replacing any previous gauge with the same name.
+     */
+    public static void gauge(String name, Gauge<Long> gauge) {
+        var registry = registry();
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+}
@@ -0,0 +1,81 @@
+package no.ssb.dapla.datamaintenance;
+
+import io.helidon.common.reactive.Single;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs at most permits asynchronous operations at the same time, across all the streams that share it.
+ * <p>
+ * Waiting operations hold no thread. Unlike a nested flatMap concurrency, the bound does not multiply with
+ * the depth of a recursion.
+ */
+public class AsyncLimiter {
+
+    private final Queue<CompletableFuture<Boolean>> waiters = new ArrayDeque<>();
+    private int available;
+
+    public AsyncLimiter(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be positive, was " + permits);
+        }
+        this.available = permits;
+    }
+
+    /**
+     * Subscribe to the operation once a permit is free and give the permit back when it terminates or is
+     * cancelled.
+     */
+    public <T> Single<T> submit(Supplier<Single<T>> operation) {
+        return Single.defer(() -> {
+            var permit = acquire();
+            var released = new AtomicBoolean();
+            Runnable release = () -> {
+                // A permit that was never granted is withdrawn instead of given back.
+                if (released.compareAndSet(false, true) && !permit.cancel(false)) {
+                    release();
+                }
+            };
+            return Single.create(permit, true)
+                    .flatMapSingle(granted -> operation.get())
+                    .onTerminate(release)
+                    .onCancel(release);
+        });
+    }
+
+    private synchronized CompletableFuture<Boolean> acquire() {
+        if (available > 0) {
+            available--;
+            return CompletableFuture.completedFuture(true);
+        }
+        var waiter = new CompletableFuture<Boolean>();
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    private void release() {
+        CompletableFuture<Boolean> next;
+        do {
+            synchronized (this) {
+                next = waiters.poll();
+                if (next == null) {
+                    available++;
+                    return;
+                }
+            }
+            // Skip waiters that were cancelled while queued.
+        } while (!next.complete(true));
+    }
+
+    public synchronized int getAvailable() {
+        return available;
+    }
+
+    public synchronized int getWaiting() {
+        return waiters.size();
+    }
+}
@@ -0,0 +1,135 @@
+package no.ssb.dapla.datamaintenance;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Count based circuit breaker.
+ * <p>
+ * The breaker opens when at least failureRatio of the last window calls failed. While open every call is
+ * rejected. After openMillis a single trial call is let through; its outcome closes or opens the breaker again.
+ * A trial that is cancelled has no outcome and lets the next call through as the trial instead.
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    private final boolean[] outcomes;
+    private final double failureRatio;
+    private final long openMillis;
+    private final LongSupplier clock;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    private State state = State.CLOSED;
+    private int next;
+    private int count;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    CircuitBreaker(int window, double failureRatio, long openMillis, LongSupplier clock) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive, was " + window);
+        }
+        this.outcomes = new boolean[window];
+        this.failureRatio = failureRatio;
+        this.openMillis = openMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Whether a call may go through now.
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < openMillis) {
+                rejected.increment();
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                rejected.increment();
+                return false;
+            }
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    /**
+     * Give back the trial of a call that was cancelled before it had an outcome, so that the next call becomes
+     * the trial. Neither a success nor a failure is recorded.
+     */
+    synchronized void releaseTrial() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            close();
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (count == outcomes.length && failures >= failureRatio * count) {
+                open();
+            }
+        }
+    }
+
+    private void record(boolean failure) {
+        if (count == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            count++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        opened.increment();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        next = 0;
+        count = 0;
+        failures = 0;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+
+    long opened() {
+        return opened.sum();
+    }
+}
@@ -0,0 +1,47 @@
+package no.ssb.dapla.datamaintenance;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles over the last samples of a latency.
+ * <p>
+ * The sorted copy is only rebuilt every few samples so that reading a percentile on every call stays cheap.
+ */
+class LatencyTracker {
+
+    private static final int RECOMPUTE_EVERY = 50;
+
+    private final long[] samples;
+    private int next;
+    private int count;
+    private int sinceSort;
+    private long[] sorted = new long[0];
+
+    LatencyTracker(int size) {
+        this.samples = new long[size];
+    }
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+        sinceSort++;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the latency in nanoseconds, or -1 if fewer than minSamples were recorded.
+     */
+    synchronized long percentile(double percentile, int minSamples) {
+        if (count < minSamples || count == 0) {
+            return -1;
+        }
+        if (sinceSort >= RECOMPUTE_EVERY || sorted.length != count) {
+            sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            sinceSort = 0;
+        }
+        var index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,240 @@
+package no.ssb.dapla.datamaintenance;
+
+import io.helidon.common.http.Http;
+import io.helidon.config.Config;
+import io.helidon.webserver.HttpException;
+
+import javax.ws.rs.WebApplicationException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Timeouts, hedging and a circuit breaker around the calls to a remote service.
+ * <p>
+ * Every attempt gets a timeout. Idempotent calls that take longer than the configured percentile of recent
+ * latencies get one duplicate request, the hedge, and the first successful answer wins. Hedges are limited to a
+ * ratio of all calls so that a slow dependency does not get twice the load. When too many calls fail, the
+ * breaker opens and calls fail fast with 503 until a trial call succeeds.
+ * <p>
+ * Client errors (4xx) count as successes for the breaker since the dependency answered.
+ */
+public class Resilience {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "resilience-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int MIN_SAMPLES = 20;
+
+    private final String name;
+    private final long timeoutMillis;
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final long minHedgeDelayMillis;
+    private final long initialHedgeDelayMillis;
+    private final double maxHedgeRatio;
+    private final CircuitBreaker breaker;
+    private final LatencyTracker latencies = new LatencyTracker(1000);
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    Resilience(String name, long timeoutMillis, boolean hedging, double hedgePercentile, long minHedgeDelayMillis,
+               long initialHedgeDelayMillis, double maxHedgeRatio, CircuitBreaker breaker) {
+        this.name = name;
+        this.timeoutMillis = timeoutMillis;
+        this.hedging = hedging;
+        this.hedgePercentile = hedgePercentile;
+        this.minHedgeDelayMillis = minHedgeDelayMillis;
+        this.initialHedgeDelayMillis = initialHedgeDelayMillis;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.breaker = breaker;
+    }
+
+    /**
+     * Create from a resilience config node. Hedging is off unless hedge.enabled is set.
+     *
+     * @param name the name of the dependency, used in error messages.
+     */
+    public static Resilience create(String name, Config config) {
+        var hedge = config.get("hedge");
+        var breaker = config.get("circuit-breaker");
+        return new Resilience(
+                name,
+                config.get("timeout-millis").asLong().orElse(10_000L),
+                hedge.get("enabled").asBoolean().orElse(false),
+                hedge.get("percentile").asDouble().orElse(95.0),
+                hedge.get("min-delay-millis").asLong().orElse(20L),
+                hedge.get("initial-delay-millis").asLong().orElse(200L),
+                hedge.get("max-ratio").asDouble().orElse(0.1),
+                new CircuitBreaker(
+                        breaker.get("window").asInt().orElse(20),
+                        breaker.get("failure-ratio").asDouble().orElse(0.5),
+                        breaker.get("open-millis").asLong().orElse(10_000L),
+                        System::currentTimeMillis)
+        );
+    }
+
+    /**
+     * Make a call that must not be repeated, with a timeout and the circuit breaker.
+     */
+    public <T> CompletionStage<T> call(Supplier<? extends CompletionStage<T>> call) {
+        return execute(call, false);
+    }
+
+    /**
+     * Make a call that can safely be sent twice, hedging it when it is slow.
+     */
+    public <T> CompletionStage<T> idempotent(Supplier<? extends CompletionStage<T>> call) {
+        return execute(call, hedging);
+    }
+
+    private <T> CompletionStage<T> execute(Supplier<? extends CompletionStage<T>> call, boolean hedge) {
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(new HttpException(name + " is unavailable, failing fast",
+                    Http.Status.SERVICE_UNAVAILABLE_503));
+        }
+        // Only the trial gets through a half open breaker.
+        var trial = breaker.getState() == CircuitBreaker.State.HALF_OPEN;
+        calls.increment();
+        var result = new CompletableFuture<T>();
+        if (trial) {
+            result.whenComplete((value, throwable) -> {
+                if (result.isCancelled()) {
+                    breaker.releaseTrial();
+                }
+            });
+        }
+        var remaining = new AtomicInteger(1);
+        attempt(call, result, remaining, false);
+        if (hedge) {
+            var hedgeTask = TIMER.schedule(() -> {
+                if (result.isDone() || hedges.sum() >= maxHedgeRatio * calls.sum()) {
+                    return;
+                }
+                remaining.incrementAndGet();
+                hedges.increment();
+                attempt(call, result, remaining, true);
+            }, hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            result.whenComplete((value, throwable) -> hedgeTask.cancel(false));
+        }
+        return result;
+    }
+
+    private <T> void attempt(Supplier<? extends CompletionStage<T>> call, CompletableFuture<T> result,
+                             AtomicInteger remaining, boolean isHedge) {
+        var start = System.nanoTime();
+        CompletableFuture<T> source;
+        try {
+            source = call.get().toCompletableFuture();
+        } catch (RuntimeException re) {
+            source = CompletableFuture.failedFuture(re);
+        }
+        var upstream = source;
+        // Give up on the loser, and on anything still running when the caller is done.
+        result.whenComplete((value, throwable) -> upstream.cancel(true));
+        upstream.copy().orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((value, throwable) -> {
+            if (throwable == null) {
+                latencies.record(System.nanoTime() - start);
+                breaker.onSuccess();
+                if (result.complete(value) && isHedge) {
+                    hedgeWins.increment();
+                }
+                return;
+            }
+            var cause = unwrap(throwable);
+            if (cause instanceof CancellationException && result.isDone()) {
+                // The caller gave up or another attempt won, this one has no outcome.
+                return;
+            }
+            if (cause instanceof TimeoutException) {
+                timeouts.increment();
+                upstream.cancel(true);
+                cause = new HttpException(name + " did not answer within " + timeoutMillis + " ms",
+                        Http.Status.GATEWAY_TIMEOUT_504, cause);
+            }
+            if (isFailure(cause)) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+            if (remaining.decrementAndGet() == 0) {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    private long hedgeDelayMillis() {
+        var percentile = latencies.percentile(hedgePercentile, MIN_SAMPLES);
+        if (percentile < 0) {
+            return initialHedgeDelayMillis;
+        }
+        return Math.max(minHedgeDelayMillis, TimeUnit.NANOSECONDS.toMillis(percentile));
+    }
+
+    static Throwable unwrap(Throwable throwable) {
+        var cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+               && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * Whether the error means that the dependency is unhealthy, as opposed to rejecting this request.
+     */
+    static boolean isFailure(Throwable cause) {
+        if (cause instanceof WebApplicationException) {
+            return ((WebApplicationException) cause).getResponse().getStatus() >= 500;
+        }
+        if (cause instanceof HttpException) {
+            return ((HttpException) cause).status().code() >= 500;
+        }
+        return true;
+    }
+
+    CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    long hedges() {
+        return hedges.sum();
+    }
+
+    long hedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Publish call, hedge, timeout and circuit breaker gauges. The breaker state is 0 when closed, 1 when half
+     * open and 2 when open.
+     */
+    public void registerMetrics(String prefix) {
+        ApplicationMetrics.gauge(prefix + ".calls", calls::sum);
+        ApplicationMetrics.gauge(prefix + ".hedges", this::hedges);
+        ApplicationMetrics.gauge(prefix + ".hedges.won", this::hedgeWins);
+        ApplicationMetrics.gauge(prefix + ".timeouts", this::timeouts);
+        ApplicationMetrics.gauge(prefix + ".circuit-breaker.state", () -> (long) breaker.getState().ordinal());
+        ApplicationMetrics.gauge(prefix + ".circuit-breaker.opened", breaker::opened);
+        ApplicationMetrics.gauge(prefix + ".circuit-breaker.rejected", breaker::rejected);
+    }
+}
@@ -0,0 +1,56 @@
+package no.ssb.dapla.datamaintenance;
+
+import io.helidon.config.Config;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds REST clients on a pooled Apache HTTP connector so that connections to a service are kept alive and
+ * reused instead of opened, and TLS negotiated, for every call.
+ * <p>
+ * Configured from a transport node: max-connections, max-connections-per-route, connect-timeout-millis,
+ * read-timeout-millis, connection-ttl-millis and validate-after-inactivity-millis.
+ */
+public class RestClientFactory {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final long connectTimeoutMillis;
+    private final long readTimeoutMillis;
+
+    public RestClientFactory(Config transport) {
+        var ttl = transport.get("connection-ttl-millis").asLong().orElse(-1L);
+        this.connectionManager = new PoolingHttpClientConnectionManager(ttl, TimeUnit.MILLISECONDS);
+        this.connectionManager.setMaxTotal(transport.get("max-connections").asInt().orElse(64));
+        this.connectionManager.setDefaultMaxPerRoute(transport.get("max-connections-per-route").asInt().orElse(32));
+        this.connectionManager.setValidateAfterInactivity(
+                transport.get("validate-after-inactivity-millis").asInt().orElse(2000));
+        this.connectTimeoutMillis = transport.get("connect-timeout-millis").asLong().orElse(2000L);
+        this.readTimeoutMillis = transport.get("read-timeout-millis").asLong().orElse(30_000L);
+    }
+
+    public <T> T build(Class<T> type, String url) {
+        return RestClientBuilder.newBuilder()
+                .baseUri(URI.create(url))
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .register(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ApacheClientProperties.CONNECTION_MANAGER_SHARED, true)
+                .build(type);
+    }
+
+    /**
+     * Publish leased, available, pending and max connection gauges of the pool.
+     */
+    public void registerMetrics(String prefix) {
+        ApplicationMetrics.gauge(prefix + ".leased", () -> (long) connectionManager.getTotalStats().getLeased());
+        ApplicationMetrics.gauge(prefix + ".available", () -> (long) connectionManager.getTotalStats().getAvailable());
+        ApplicationMetrics.gauge(prefix + ".pending", () -> (long) connectionManager.getTotalStats().getPending());
+        ApplicationMetrics.gauge(prefix + ".max", () -> (long) connectionManager.getTotalStats().getMax());
+    }
+}
@@ -1,44 +1,154 @@
 package no.ssb.dapla.datamaintenance.access;
 
+import com.google.auth.oauth2.OAuth2Credentials;
 import io.helidon.common.reactive.Single;
 import io.helidon.config.Config;
 import no.ssb.dapla.data.access.protobuf.DeleteLocationRequest;
 import no.ssb.dapla.data.access.protobuf.DeleteLocationResponse;
 import no.ssb.dapla.datamaintenance.ExceptionConverter;
-import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import no.ssb.dapla.datamaintenance.ExpiringCache;
+import no.ssb.dapla.datamaintenance.Resilience;
+import no.ssb.dapla.datamaintenance.RestClientFactory;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 @ApplicationScoped
 public class DataAccessService {
 
-    private DataAccessClient client;
+    private static final ScheduledExecutorService REFRESH_TIMER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                var thread = new Thread(runnable, "delete-token-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final DataAccessClient client;
+    private final Resilience resilience;
+    private final ExpiringCache<TokenKey, DeleteLocationResponse> tokens;
+    private final Clock clock;
+    private final Duration refreshMargin;
 
     @Inject
     public DataAccessService(Config config) {
-        this(config.get("dataaccess.url").asString().get());
+        this(config, new RestClientFactory(config.get("dataaccess.transport")));
+    }
+
+    private DataAccessService(Config config, RestClientFactory clientFactory) {
+        this(clientFactory.build(DataAccessClient.class, config.get("dataaccess.url").asString().get()),
+                config.get("dataaccess"), Clock.systemUTC());
+        clientFactory.registerMetrics("dataaccess.client.pool");
+        resilience.registerMetrics("dataaccess.client");
+        tokens.registerMetrics("dataaccess.tokens");
     }
 
     public DataAccessService(String url) {
-        client = RestClientBuilder.newBuilder()
-                .baseUri(URI.create(url))
-                .build(DataAccessClient.class);
+        this(new RestClientFactory(Config.empty()).build(DataAccessClient.class, url), Config.empty(),
+                Clock.systemUTC());
     }
 
+    /**
+     * @param config the dataaccess config node. The calls are POSTs and never hedged.
+     */
+    DataAccessService(DataAccessClient client, Config config, Clock clock) {
+        this.client = client;
+        this.clock = clock;
+        this.resilience = Resilience.create("data access", config.get("resilience"));
+        this.tokens = new ExpiringCache<>(config.get("token-cache.max-size").asInt().orElse(10_000), clock);
+        this.refreshMargin = Duration.ofSeconds(config.get("token-cache.refresh-margin-seconds").asLong()
+                .orElse(120L));
+    }
+
+    /**
+     * Get a delete token for a version, reusing the token given to the same user for the same version until
+     * refreshMargin before it expires. Denied access is never cached.
+     * <p>
+     * The versions of a dataset can live under different parentUris and have different access, so a token is
+     * never shared between versions.
+     */
     public Single<DeleteLocationResponse> getDeleteToken(String path, Long version, String token) {
+        var key = new TokenKey(bearer(token), path, version);
+        var cached = tokens.get(key);
+        if (cached.isPresent()) {
+            return Single.just(cached.get());
+        }
+        return fetchDeleteToken(key);
+    }
+
+    private Single<DeleteLocationResponse> fetchDeleteToken(TokenKey key) {
         var request = DeleteLocationRequest.newBuilder()
-                .setPath(path)
-                .setSnapshot(version)
+                .setPath(key.path)
+                .setSnapshot(key.version)
                 .build();
-        if (!token.startsWith("Bearer ")) {
-            token = "Bearer " + token;
-        }
-        String finalToken = token;
         return Single.defer(() ->
-                Single.create(client.deleteLocation(request, finalToken))
+                Single.create(resilience.call(() -> client.deleteLocation(request, key.token)))
+                        .peek(response -> {
+                            if (response.getAccessAllowed() && response.getExpirationTime() > 0) {
+                                tokens.put(key, response, Instant.ofEpochMilli(response.getExpirationTime())
+                                        .minus(refreshMargin));
+                            }
+                        })
                         .onError(throwable -> new ExceptionConverter("failed to get token"))
         );
     }
+
+    /**
+     * Credentials for the delete token of a version that fetch a new token from data access in the background
+     * before the current one expires. A new token for another parentUri than the current one is refused.
+     */
+    public OAuth2Credentials getCredentials(String path, Long version, String token,
+                                            DeleteLocationResponse response) {
+        var key = new TokenKey(bearer(token), path, version);
+        return new DeleteTokenCredentials(response, () -> {
+            tokens.invalidate(key);
+            return fetchDeleteToken(key).toStage().thenApply(refreshed -> {
+                if (!refreshed.getParentUri().equals(response.getParentUri())) {
+                    tokens.invalidate(key);
+                    throw new IllegalStateException("refreshed delete token for " + key.path + " is for "
+                                                    + refreshed.getParentUri() + " instead of "
+                                                    + response.getParentUri());
+                }
+                return refreshed;
+            });
+        }, REFRESH_TIMER, refreshMargin, clock);
+    }
+
+    private static String bearer(String token) {
+        return token.startsWith("Bearer ") ? token : "Bearer " + token;
+    }
+
+    ExpiringCache<?, ?> getTokens() {
+        return tokens;
+    }
+
+    private static final class TokenKey {
+        private final String token;
+        private final String path;
+        private final Long version;
+
+        private TokenKey(String token, String path, Long version) {
+            this.token = token;
+            this.path = path;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TokenKey that = (TokenKey) o;
+            return token.equals(that.token) && path.equals(that.path) && Objects.equals(version, that.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(token, path, version);
+        }
+    }
 }
@@ -0,0 +1,137 @@
+package no.ssb.dapla.datamaintenance.access;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.OAuth2Credentials;
+import no.ssb.dapla.data.access.protobuf.DeleteLocationResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Credentials backed by a delete token from data access that fetch a new token before the current one
+ * expires, so that a long delete does not fail half way.
+ * <p>
+ * The new token is fetched in the background refreshMargin before the current one expires, and again for
+ * each following token as long as the credentials are used. {@link #refreshAccessToken()} never waits for data
+ * access; it returns the latest token and only fails once that token has expired.
+ */
+class DeleteTokenCredentials extends OAuth2Credentials {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeleteTokenCredentials.class);
+
+    private final Refresher refresher;
+    private final ScheduledExecutorService timer;
+    private final Duration refreshMargin;
+    private final Clock clock;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final AtomicBoolean used = new AtomicBoolean();
+    private volatile DeleteLocationResponse latest;
+    private volatile Throwable lastFailure;
+
+    DeleteTokenCredentials(DeleteLocationResponse response, Refresher refresher, ScheduledExecutorService timer,
+                           Duration refreshMargin, Clock clock) {
+        super(toAccessToken(response));
+        this.refresher = refresher;
+        this.timer = timer;
+        this.refreshMargin = refreshMargin;
+        this.clock = clock;
+        this.latest = response;
+        scheduleRefresh(response);
+    }
+
+    static AccessToken toAccessToken(DeleteLocationResponse response) {
+        return new AccessToken(response.getAccessToken(),
+                Date.from(Instant.ofEpochMilli(response.getExpirationTime())));
+    }
+
+    private Instant refreshAt(DeleteLocationResponse response) {
+        return Instant.ofEpochMilli(response.getExpirationTime()).minus(refreshMargin);
+    }
+
+    private void scheduleRefresh(DeleteLocationResponse response) {
+        var delay = Math.max(Duration.between(clock.instant(), refreshAt(response)).toMillis(), 0);
+        timer.schedule(() -> {
+            // Credentials that were not used since the last token are left to expire.
+            if (used.getAndSet(false)) {
+                startRefresh();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void startRefresh() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        CompletionStage<DeleteLocationResponse> refreshed;
+        try {
+            refreshed = refresher.refresh();
+        } catch (RuntimeException re) {
+            onRefreshed(null, re);
+            return;
+        }
+        refreshed.whenComplete(this::onRefreshed);
+    }
+
+    private void onRefreshed(DeleteLocationResponse response, Throwable throwable) {
+        if (throwable != null) {
+            LOG.warn("could not refresh delete token", throwable);
+            lastFailure = throwable;
+        } else {
+            latest = response;
+            lastFailure = null;
+            scheduleRefresh(response);
+        }
+        refreshing.set(false);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestMetadata(URI uri) throws IOException {
+        used.set(true);
+        return super.getRequestMetadata(uri);
+    }
+
+    @Override
+    public AccessToken refreshAccessToken() throws IOException {
+        used.set(true);
+        var response = latest;
+        var now = clock.instant();
+        if (!refreshAt(response).isAfter(now)) {
+            // The scheduled refresh did not run or failed, try again without waiting for it.
+            startRefresh();
+        }
+        if (!response.getAccessAllowed()) {
+            throw new IOException("delete access is no longer allowed");
+        }
+        if (!Instant.ofEpochMilli(response.getExpirationTime()).isAfter(now)) {
+            throw new IOException("delete token expired before it could be refreshed", lastFailure);
+        }
+        return toAccessToken(response);
+    }
+
+    DeleteLocationResponse getLatest() {
+        return latest;
+    }
+
+    /**
+     * @return why the last refresh failed, or null if it succeeded.
+     */
+    Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    interface Refresher {
+        CompletionStage<DeleteLocationResponse> refresh();
+    }
+}
@@ -12,6 +12,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import java.io.InputStream;
 import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
@@ -22,19 +23,35 @@ import java.util.concurrent.CompletionStage;
 @RegisterProvider(ProtobufJsonProvider.class)
 public interface CatalogClient {
 
+    /**
+     * List the folders under prefix, starting after cursor when it is not null.
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("folder")
     CompletionStage<IdentifierList> folderAsync(@QueryParam("prefix") String prefix,
                                                 @QueryParam("version") Instant version,
-                                                @QueryParam("limit") Integer limit);
+                                                @QueryParam("limit") Integer limit,
+                                                @QueryParam("cursor") String cursor);
 
+    default CompletionStage<IdentifierList> folderAsync(String prefix, Instant version, Integer limit) {
+        return folderAsync(prefix, version, limit, null);
+    }
+
+    /**
+     * List the datasets under prefix, starting after cursor when it is not null.
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("dataset")
     CompletionStage<IdentifierList> datasetAsync(@QueryParam("prefix") String prefix,
                                                  @QueryParam("version") Instant version,
-                                                 @QueryParam("limit") Integer limit);
+                                                 @QueryParam("limit") Integer limit,
+                                                 @QueryParam("cursor") String cursor);
+
+    default CompletionStage<IdentifierList> datasetAsync(String prefix, Instant version, Integer limit) {
+        return datasetAsync(prefix, version, limit, null);
+    }
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -51,6 +68,17 @@ public interface CatalogClient {
                                               @QueryParam("limit") Integer limit
     );
 
+    /**
+     * Same as {@link #versionAsync(String, Integer)} but gives the body unparsed so that it can be streamed.
+     * The caller must close the stream.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("version")
+    CompletionStage<InputStream> versionStreamAsync(@QueryParam("path") String prefix,
+                                                    @QueryParam("limit") Integer limit
+    );
+
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Path("rpc/CatalogService/delete")
@@ -59,6 +87,10 @@ public interface CatalogClient {
 
     class IdentifierList {
         public List<Identifier> entries = List.of();
+        /**
+         * Cursor of the next page, null on the last page.
+         */
+        public String cursor;
     }
 
     class Identifier {
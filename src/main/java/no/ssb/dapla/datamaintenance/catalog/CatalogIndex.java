@@ -0,0 +1,382 @@
+package no.ssb.dapla.datamaintenance.catalog;
+
+import io.helidon.common.reactive.Multi;
+import io.helidon.common.reactive.Single;
+import no.ssb.dapla.datamaintenance.ApplicationMetrics;
+import no.ssb.dapla.datamaintenance.AsyncLimiter;
+import no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory prefix trie of the catalog namespace with one node per path segment.
+ * <p>
+ * Every folder node remembers when its children were last listed from the catalog. Lookups only answer from
+ * folders that were listed less than maxStaleness ago and that no delete has touched since; otherwise they return
+ * empty and the caller asks the catalog. A refresh walks the namespace again and replaces the children of one
+ * folder at a time, so the index stays usable while it runs.
+ */
+class CatalogIndex {
+
+    static final int PAGE_SIZE = 1000;
+
+    private final Clock clock;
+    private final Duration maxStaleness;
+    private final Node root = new Node("");
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private volatile Instant lastRefresh;
+
+    CatalogIndex(Clock clock, Duration maxStaleness) {
+        this.clock = clock;
+        this.maxStaleness = maxStaleness;
+    }
+
+    static List<String> segments(String path) {
+        var segments = new ArrayList<String>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * The path of the child segment of the folder at segments. Nodes only hold their own segment, the paths
+     * are built while walking down to them.
+     */
+    private static String childPath(List<String> segments, String segment) {
+        var path = new StringBuilder();
+        for (String parent : segments) {
+            path.append('/').append(parent);
+        }
+        return path.append('/').append(segment).toString();
+    }
+
+    private Node find(List<String> segments) {
+        var node = root;
+        for (String segment : segments) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private boolean isFresh(Node node, Instant now) {
+        return node.listedAt != null && !node.dirty && node.listedAt.plus(maxStaleness).isAfter(now);
+    }
+
+    private <T> Optional<T> hit(T value) {
+        hits.increment();
+        return Optional.of(value);
+    }
+
+    private <T> Optional<T> fallback() {
+        fallbacks.increment();
+        return Optional.empty();
+    }
+
+    Optional<List<Identifier>> folders(String prefix) {
+        return children(prefix, true);
+    }
+
+    Optional<List<Identifier>> datasets(String prefix) {
+        return children(prefix, false);
+    }
+
+    private Optional<List<Identifier>> children(String prefix, boolean folders) {
+        lock.readLock().lock();
+        try {
+            var segments = segments(prefix);
+            var node = find(segments);
+            if (node == null || !isFresh(node, clock.instant())) {
+                return fallback();
+            }
+            var result = new ArrayList<Identifier>();
+            for (Node child : node.children.values()) {
+                var timestamp = folders ? child.folderTimestamp : child.datasetTimestamp;
+                if (timestamp != null) {
+                    result.add(Identifier.of(childPath(segments, child.segment), timestamp));
+                }
+            }
+            return hit(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether a folder or a dataset exists at path. Both answers need a fresh listing of the folder that
+     * should hold it.
+     */
+    Optional<Boolean> exists(String prefix) {
+        var segments = segments(prefix);
+        if (segments.isEmpty()) {
+            return fallback();
+        }
+        lock.readLock().lock();
+        try {
+            var now = clock.instant();
+            var parent = root;
+            var node = root;
+            for (String segment : segments) {
+                var child = node.children.get(segment);
+                if (child == null) {
+                    // Only a fresh listing of the deepest known folder can tell that the path is missing.
+                    return isFresh(node, now) ? hit(false) : fallback();
+                }
+                parent = node;
+                node = child;
+            }
+            // The path may have been deleted since its parent was listed.
+            return !node.dirty && isFresh(parent, now) ? hit(true) : fallback();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether exactly one dataset exists at or under path, the way the catalog path listing counts them.
+     */
+    Optional<Boolean> isOnlyDataset(String prefix) {
+        lock.readLock().lock();
+        try {
+            var now = clock.instant();
+            var segments = segments(prefix);
+            var node = find(segments);
+            var parent = segments.isEmpty() ? null : find(segments.subList(0, segments.size() - 1));
+            if (node == null) {
+                return parent != null && isFresh(parent, now) ? hit(false) : fallback();
+            }
+            if (parent != null && !isFresh(parent, now)) {
+                // The path may have been deleted since its parent was listed.
+                return fallback();
+            }
+            var datasets = 0;
+            var pending = new ArrayDeque<Node>();
+            pending.add(node);
+            while (!pending.isEmpty() && datasets < 2) {
+                var current = pending.poll();
+                if (current.dirty) {
+                    return fallback();
+                }
+                if (current.datasetTimestamp != null) {
+                    datasets++;
+                }
+                if (current.folderTimestamp != null || current == node && !current.children.isEmpty()) {
+                    if (!isFresh(current, now)) {
+                        return fallback();
+                    }
+                    pending.addAll(current.children.values());
+                }
+            }
+            return hit(datasets == 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Paths that start with prefix, completing its last segment. A prefix that ends with a slash lists the
+     * children of that folder.
+     */
+    Optional<List<String>> complete(String prefix, int limit) {
+        var segments = segments(prefix);
+        var partial = "";
+        if (!prefix.endsWith("/") && !segments.isEmpty()) {
+            partial = segments.remove(segments.size() - 1);
+        }
+        lock.readLock().lock();
+        try {
+            var node = find(segments);
+            if (node == null || !isFresh(node, clock.instant())) {
+                return fallback();
+            }
+            var result = new ArrayList<String>();
+            for (Map.Entry<String, Node> entry : node.children.tailMap(partial).entrySet()) {
+                if (result.size() >= limit || !entry.getKey().startsWith(partial)) {
+                    break;
+                }
+                result.add(childPath(segments, entry.getKey()));
+            }
+            return hit(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the children of the folder at path with a fresh listing from the catalog.
+     */
+    void apply(String path, List<Identifier> folders, List<Identifier> datasets, Instant listedAt) {
+        lock.writeLock().lock();
+        try {
+            var node = root;
+            for (String segment : segments(path)) {
+                node = node.children.computeIfAbsent(segment, Node::new);
+            }
+            Set<String> seenFolders = new HashSet<>();
+            for (Identifier folder : folders) {
+                seenFolders.add(child(node, folder).setFolder(folder));
+            }
+            Set<String> seenDatasets = new HashSet<>();
+            for (Identifier dataset : datasets) {
+                seenDatasets.add(child(node, dataset).setDataset(dataset));
+            }
+            var iterator = node.children.values().iterator();
+            while (iterator.hasNext()) {
+                var child = iterator.next();
+                if (!seenFolders.contains(child.segment)) {
+                    child.folderTimestamp = null;
+                }
+                if (!seenDatasets.contains(child.segment)) {
+                    child.datasetTimestamp = null;
+                }
+                if (child.folderTimestamp == null && child.datasetTimestamp == null) {
+                    iterator.remove();
+                } else if (child.folderTimestamp == null) {
+                    // Datasets are never listed themselves, this listing is their refresh.
+                    child.dirty = false;
+                }
+            }
+            node.listedAt = listedAt;
+            node.dirty = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static Node child(Node node, Identifier identifier) {
+        var segments = segments(identifier.path);
+        var segment = segments.isEmpty() ? identifier.path : segments.get(segments.size() - 1);
+        return node.children.computeIfAbsent(segment, Node::new);
+    }
+
+    /**
+     * Mark path and its ancestors so that they are answered by the catalog until the next refresh.
+     */
+    void invalidate(String path) {
+        lock.writeLock().lock();
+        try {
+            var node = root;
+            node.dirty = true;
+            for (String segment : segments(path)) {
+                node = node.children.get(segment);
+                if (node == null) {
+                    return;
+                }
+                node.dirty = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * List every folder under rootPath again, at most concurrency folders at the same time.
+     *
+     * @return the number of folders that were listed.
+     */
+    Single<Long> refresh(CatalogClient client, String rootPath, int concurrency) {
+        var limiter = new AsyncLimiter(concurrency);
+        var version = clock.instant();
+        return walk(client, rootPath, version, limiter, concurrency)
+                .reduce(() -> 0L, (count, folder) -> count + 1)
+                .peek(count -> lastRefresh = version);
+    }
+
+    private Multi<String> walk(CatalogClient client, String path, Instant version, AsyncLimiter limiter,
+                               int concurrency) {
+        return limiter.submit(() -> {
+            var folders = CatalogService.pages(cursor -> client.folderAsync(path, version, PAGE_SIZE, cursor),
+                    PAGE_SIZE, null).collectList();
+            var datasets = CatalogService.pages(cursor -> client.datasetAsync(path, version, PAGE_SIZE, cursor),
+                    PAGE_SIZE, null).collectList();
+            return folders.flatMapSingle(folderList -> datasets.map(datasetList -> {
+                apply(path, folderList, datasetList, clock.instant());
+                return folderList;
+            }));
+        }).flatMap(folders -> Multi.concat(Multi.just(path), Multi.create(folders)
+                .flatMap(folder -> walk(client, folder.path, version, limiter, concurrency), concurrency, false, 1)));
+    }
+
+    long size() {
+        lock.readLock().lock();
+        try {
+            var count = 0L;
+            var pending = new ArrayDeque<Node>();
+            pending.add(root);
+            while (!pending.isEmpty()) {
+                var node = pending.poll();
+                count++;
+                pending.addAll(node.children.values());
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Instant getLastRefresh() {
+        return lastRefresh;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long fallbacks() {
+        return fallbacks.sum();
+    }
+
+    void registerMetrics(String prefix) {
+        ApplicationMetrics.gauge(prefix + ".nodes", this::size);
+        ApplicationMetrics.gauge(prefix + ".hits", this::hits);
+        ApplicationMetrics.gauge(prefix + ".fallbacks", this::fallbacks);
+        ApplicationMetrics.gauge(prefix + ".age-millis", () -> {
+            var refreshed = lastRefresh;
+            return refreshed == null ? -1L : Duration.between(refreshed, clock.instant()).toMillis();
+        });
+    }
+
+    private static final class Node {
+        private final String segment;
+        private final TreeMap<String, Node> children = new TreeMap<>();
+        private Long folderTimestamp;
+        private Long datasetTimestamp;
+        private Instant listedAt;
+        private boolean dirty;
+
+        private Node(String segment) {
+            this.segment = segment;
+        }
+
+        private String setFolder(Identifier identifier) {
+            folderTimestamp = identifier.timestamp;
+            return segment;
+        }
+
+        private String setDataset(Identifier identifier) {
+            datasetTimestamp = identifier.timestamp;
+            return segment;
+        }
+    }
+}
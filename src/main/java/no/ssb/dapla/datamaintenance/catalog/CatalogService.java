@@ -5,72 +5,385 @@ import io.helidon.common.reactive.Single;
 import io.helidon.config.Config;
 import no.ssb.dapla.catalog.protobuf.DeleteDatasetRequest;
 import no.ssb.dapla.catalog.protobuf.DeleteDatasetResponse;
+import no.ssb.dapla.datamaintenance.ApplicationMetrics;
 import no.ssb.dapla.datamaintenance.ExceptionConverter;
+import no.ssb.dapla.datamaintenance.ExpiringCache;
+import no.ssb.dapla.datamaintenance.Resilience;
+import no.ssb.dapla.datamaintenance.RestClientFactory;
 import no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
-import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import no.ssb.dapla.datamaintenance.catalog.CatalogClient.IdentifierList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import java.net.URI;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Wrap catalog client.
+ * <p>
+ * The path, folder and dataset listings can be cached for a short time when catalog.cache.enabled is set. The
+ * version given to these calls is not part of the cache key since callers always list the current state. Cached
+ * listings of a path and of its ancestors are dropped when a version of the path is deleted.
+ * <p>
+ * When catalog.index.enabled is set, the whole namespace under catalog.index.root is also kept in a
+ * {@link CatalogIndex} that is refreshed every refresh-interval-seconds. Existence checks and full listings are
+ * then answered from memory, and from the catalog for the parts of the index that are stale.
+ * <p>
+ * All calls go through {@link Resilience}, configured by catalog.resilience.
  */
 @ApplicationScoped
 public class CatalogService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CatalogService.class);
+
     private final CatalogClient client;
+    private final Resilience resilience;
+    private final ExpiringCache<CacheKey, IdentifierList> cache;
+    private final SingleFlight<CacheKey, IdentifierList> flights = new SingleFlight<>();
+    private final AtomicLong epoch = new AtomicLong();
+    private final Duration cacheTtl;
+    private final Clock clock;
+    private final CatalogIndex index;
 
     @Inject
     public CatalogService(Config config) {
-        this(config.get("catalog.url").asString().get());
+        this(config, new RestClientFactory(config.get("catalog.transport")));
+    }
+
+    private CatalogService(Config config, RestClientFactory clientFactory) {
+        this(clientFactory.build(CatalogClient.class, config.get("catalog.url").asString().get()),
+                config.get("catalog"), Clock.systemUTC());
+        clientFactory.registerMetrics("catalog.client.pool");
+        if (cache != null) {
+            cache.registerMetrics("catalog.cache");
+        }
+        resilience.registerMetrics("catalog.client");
+        if (index != null) {
+            index.registerMetrics("catalog.index");
+            scheduleIndexRefresh(config.get("catalog.index"));
+        }
+        ApplicationMetrics.gauge("catalog.requests", flights::calls);
+        ApplicationMetrics.gauge("catalog.requests.coalesced", flights::coalesced);
     }
 
     public CatalogService(String url) {
-        client = RestClientBuilder.newBuilder()
-                .baseUri(URI.create(url))
-                .build(CatalogClient.class);
+        this(new RestClientFactory(Config.empty()).build(CatalogClient.class, url));
     }
 
     public CatalogService(CatalogClient client) {
-        this.client = client;
+        this(client, Config.empty(), Clock.systemUTC());
+    }
+
+    /**
+     * @param config the catalog config node.
+     */
+    CatalogService(CatalogClient client, Config config, Clock clock) {
+        this.resilience = Resilience.create("catalog", config.get("resilience"));
+        this.client = new ResilientCatalogClient(client, resilience);
+        this.clock = clock;
+        var cacheConfig = config.get("cache");
+        this.cacheTtl = Duration.ofMillis(cacheConfig.get("ttl-millis").asLong().orElse(5000L));
+        this.cache = cacheConfig.get("enabled").asBoolean().orElse(false)
+                ? new ExpiringCache<>(cacheConfig.get("max-size").asInt().orElse(1000), clock)
+                : null;
+        var indexConfig = config.get("index");
+        this.index = indexConfig.get("enabled").asBoolean().orElse(false)
+                ? new CatalogIndex(clock, Duration.ofSeconds(indexConfig.get("max-staleness-seconds").asLong()
+                .orElse(600L)))
+                : null;
+    }
+
+    /**
+     * Load the index now and refresh it at a fixed delay. A failed refresh keeps the previous index, which
+     * falls back to the catalog once it gets too old.
+     */
+    private void scheduleIndexRefresh(Config indexConfig) {
+        var root = indexConfig.get("root").asString().orElse("/");
+        var concurrency = indexConfig.get("concurrency").asInt().orElse(8);
+        var interval = indexConfig.get("refresh-interval-seconds").asLong().orElse(300L);
+        var scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "catalog-index-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                var start = clock.instant();
+                var folders = refreshIndex(root, concurrency).await();
+                LOG.info("refreshed catalog index of {} folders in {}", folders,
+                        Duration.between(start, clock.instant()));
+            } catch (RuntimeException re) {
+                LOG.warn("failed to refresh catalog index", re);
+            }
+        }, 0, interval, TimeUnit.SECONDS);
+    }
+
+    Single<Long> refreshIndex(String root, int concurrency) {
+        return index.refresh(client, root, concurrency);
+    }
+
+    /**
+     * Paths that start with prefix, for autocompletion. A prefix that ends with a slash lists the children of
+     * that folder.
+     */
+    public Single<List<String>> complete(String prefix, int limit) {
+        if (index != null) {
+            var completions = index.complete(prefix, limit);
+            if (completions.isPresent()) {
+                return Single.just(completions.get());
+            }
+        }
+        var segments = CatalogIndex.segments(prefix);
+        var partial = "";
+        if (!prefix.endsWith("/") && !segments.isEmpty()) {
+            partial = segments.remove(segments.size() - 1);
+        }
+        var parent = (prefix.startsWith("/") ? "/" : "") + String.join("/", segments);
+        var now = clock.instant();
+        var lastSegment = partial;
+        return Multi.concat(getAllFolders(parent, now, CatalogIndex.PAGE_SIZE),
+                getAllDatasets(parent, now, CatalogIndex.PAGE_SIZE))
+                .map(identifier -> identifier.path)
+                .filter(path -> {
+                    var pathSegments = CatalogIndex.segments(path);
+                    return !pathSegments.isEmpty() && pathSegments.get(pathSegments.size() - 1).startsWith(lastSegment);
+                })
+                .distinct()
+                .collectList()
+                .map(paths -> {
+                    var sorted = new ArrayList<>(paths);
+                    Collections.sort(sorted);
+                    return sorted.subList(0, Math.min(limit, sorted.size()));
+                });
+    }
+
+    /**
+     * Return the cached listing for the key, or make the call and cache its result.
+     * <p>
+     * Identical calls that are in flight at the same time share one request to the catalog. A result is not
+     * cached if an invalidation happened while its call was in flight, since it may predate the change.
+     */
+    private CompletionStage<IdentifierList> cached(String operation, String prefix, Integer limit, String cursor,
+                                                   Supplier<CompletionStage<IdentifierList>> call) {
+        var key = new CacheKey(operation, prefix, limit, cursor);
+        if (cache == null) {
+            return flights.execute(key, call);
+        }
+        var hit = cache.get(key);
+        if (hit.isPresent()) {
+            return CompletableFuture.completedFuture(hit.get());
+        }
+        return flights.execute(key, () -> {
+            var started = epoch.get();
+            return call.get().thenApply(identifierList -> {
+                if (epoch.get() == started) {
+                    cache.put(key, identifierList, clock.instant().plus(cacheTtl));
+                }
+                return identifierList;
+            });
+        });
+    }
+
+    /**
+     * Like {@link Single#create(CompletionStage)}, but cancelling the single also cancels the stage. For a stage
+     * of {@link SingleFlight} that detaches the caller, and the shared call is cancelled with its last caller.
+     */
+    static <T> Single<T> cancellable(CompletionStage<T> stage) {
+        return Single.create(stage).onCancel(() -> stage.toCompletableFuture().cancel(false));
+    }
+
+    /**
+     * Drop the cached listings of path and of all its ancestors. Calls for them that are in flight are left to
+     * their current callers, and later callers make a new call.
+     */
+    void invalidate(String path) {
+        var normalized = normalize(path);
+        Predicate<CacheKey> affected = key -> {
+            var prefix = normalize(key.prefix);
+            return prefix.isEmpty() || normalized.equals(prefix) || normalized.startsWith(prefix + "/");
+        };
+        epoch.incrementAndGet();
+        flights.forgetIf(affected);
+        if (cache != null) {
+            cache.invalidateIf(affected);
+        }
+    }
+
+    private static String normalize(String path) {
+        if (path == null) {
+            return "";
+        }
+        var start = 0;
+        var end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    SingleFlight<CacheKey, IdentifierList> getFlights() {
+        return flights;
+    }
+
+    CatalogIndex getIndex() {
+        return index;
+    }
+
+    ExpiringCache<CacheKey, IdentifierList> getCache() {
+        return cache;
     }
 
     public Single<Boolean> doesPathExist(String prefix, Instant version) {
+        if (index != null) {
+            var exists = index.exists(prefix);
+            if (exists.isPresent()) {
+                return Single.just(exists.get());
+            }
+        }
         return getPath(prefix, version, 1).collectList()
                 .map(identifiers -> !identifiers.isEmpty());
     }
 
     public Single<Boolean> isOnlyDataset(String prefix, Instant version) {
+        if (index != null) {
+            var onlyDataset = index.isOnlyDataset(prefix);
+            if (onlyDataset.isPresent()) {
+                return Single.just(onlyDataset.get());
+            }
+        }
         return getPath(prefix, version, 2).collectList()
                 .map(identifiers -> identifiers.size() == 1);
     }
 
     public Multi<Identifier> getPath(String prefix, Instant version, Integer limit) {
-        return Single.create(client.pathAsync(prefix, version, limit))
+        return cancellable(cached("path", prefix, limit, null,
+                () -> client.pathAsync(prefix, version, limit)))
                 .flatMapIterable(identifierList -> identifierList.entries)
                 .onError(throwable -> new ExceptionConverter("failed to get paths"));
     }
 
     public Multi<Identifier> getDatasets(String prefix, Instant version, Integer limit) {
-        return Single.create(client.datasetAsync(prefix, version, limit))
+        return cancellable(cached("dataset", prefix, limit, null,
+                () -> client.datasetAsync(prefix, version, limit)))
                 .flatMapIterable(identifierList -> identifierList.entries)
                 .onError(throwable -> new ExceptionConverter("failed to get datasets"));
     }
 
     public Multi<Identifier> getFolders(String prefix, Instant version, Integer limit) {
-        return Single.create(client.folderAsync(prefix, version, limit))
+        return cancellable(cached("folder", prefix, limit, null,
+                () -> client.folderAsync(prefix, version, limit)))
                 .flatMapIterable(identifierList -> identifierList.entries)
                 .onError(throwable -> new ExceptionConverter("failed to get folders"));
     }
 
+    /**
+     * All the datasets under prefix, fetched pageSize at a time by following the cursors of the catalog.
+     */
+    public Multi<Identifier> getAllDatasets(String prefix, Instant version, Integer pageSize) {
+        if (index != null) {
+            var datasets = index.datasets(prefix);
+            if (datasets.isPresent()) {
+                return Multi.create(datasets.get());
+            }
+        }
+        return pages(cursor -> cached("dataset", prefix, pageSize, cursor,
+                () -> client.datasetAsync(prefix, version, pageSize, cursor)), pageSize, null)
+                .onError(throwable -> new ExceptionConverter("failed to get datasets"));
+    }
+
+    /**
+     * All the folders under prefix, fetched pageSize at a time by following the cursors of the catalog.
+     */
+    public Multi<Identifier> getAllFolders(String prefix, Instant version, Integer pageSize) {
+        if (index != null) {
+            var folders = index.folders(prefix);
+            if (folders.isPresent()) {
+                return Multi.create(folders.get());
+            }
+        }
+        return pages(cursor -> cached("folder", prefix, pageSize, cursor,
+                () -> client.folderAsync(prefix, version, pageSize, cursor)), pageSize, null)
+                .onError(throwable -> new ExceptionConverter("failed to get folders"));
+    }
+
+    /**
+     * Emit the entries of a page as soon as it arrives and only then ask for the next one.
+     * <p>
+     * The first page is requested right away so that callers can fire several listings at the same time.
+     */
+    static Multi<Identifier> pages(Function<String, CompletionStage<IdentifierList>> fetch, Integer pageSize,
+                                   String cursor) {
+        return cancellable(fetch.apply(cursor)).flatMap(page -> {
+            var entries = Multi.create(page.entries);
+            var next = page.cursor;
+            if (next == null || next.isEmpty() || page.entries.isEmpty()) {
+                if (pageSize != null && page.entries.size() >= pageSize) {
+                    LOG.warn("catalog returned a full page of {} entries without a cursor, the listing may be "
+                             + "truncated", page.entries.size());
+                }
+                return entries;
+            }
+            if (Objects.equals(next, cursor)) {
+                LOG.warn("catalog returned the same cursor {} twice, stopping", next);
+                return entries;
+            }
+            return Multi.concat(entries, Multi.defer(() -> pages(fetch, pageSize, next)));
+        });
+    }
+
+    /**
+     * The versions of a dataset, emitted as they are parsed from the response so that the first ones can be
+     * used before the whole list has arrived.
+     */
     public Multi<Identifier> getDatasetVersions(String path, Integer limit) {
-        return Single.create(client.versionAsync(path, limit))
-                .flatMapIterable(identifierList -> identifierList.entries)
+        return Single.create(client.versionStreamAsync(path, limit))
+                .flatMap(CatalogService::readIdentifiers)
                 .onError(throwable -> new ExceptionConverter("failed to get versions"));
     }
 
+    static Multi<Identifier> readIdentifiers(InputStream input) {
+        IdentifierListReader reader;
+        try {
+            reader = new IdentifierListReader(input);
+        } catch (IOException ioe) {
+            closeQuietly(input);
+            return Multi.error(ioe);
+        }
+        // The reader is pulled as downstream requests more, which gives backpressure on the response body.
+        return Multi.create(() -> reader)
+                .onTerminate(() -> closeQuietly(reader))
+                .onCancel(() -> closeQuietly(reader));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ioe) {
+            LOG.debug("could not close version response", ioe);
+        }
+    }
+
     public Single<DeleteDatasetResponse> deleteDatasetVersion(String path, Instant version, String token) {
         DeleteDatasetRequest request = DeleteDatasetRequest.newBuilder()
                 .setPath(path)
@@ -79,7 +392,45 @@ public class CatalogService {
         if (!token.startsWith("Bearer ")) {
             token = "Bearer " + token;
         }
-        return Single.create(client.deleteAsync(request, token));
+        return Single.create(client.deleteAsync(request, token))
+                .peek(response -> {
+                    invalidate(path);
+                    if (index != null) {
+                        index.invalidate(path);
+                    }
+                });
+    }
+
+    static final class CacheKey {
+        private final String operation;
+        private final String prefix;
+        private final Integer limit;
+        private final String cursor;
 
+        CacheKey(String operation, String prefix, Integer limit, String cursor) {
+            this.operation = operation;
+            this.prefix = prefix;
+            this.limit = limit;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey that = (CacheKey) o;
+            return operation.equals(that.operation) && Objects.equals(prefix, that.prefix)
+                   && Objects.equals(limit, that.limit) && Objects.equals(cursor, that.cursor);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(operation, prefix, limit, cursor);
+        }
+
+        @Override
+        public String toString() {
+            return operation + "(" + prefix + ", " + limit + ", " + cursor + ")";
+        }
     }
 }
@@ -0,0 +1,109 @@
+package no.ssb.dapla.datamaintenance.catalog;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the entries of an {@link CatalogClient.IdentifierList} response one at a time, without holding the
+ * whole list in memory.
+ */
+class IdentifierListReader implements Iterator<Identifier>, Closeable {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final JsonParser parser;
+    private boolean started;
+    private boolean done;
+    private Identifier next;
+
+    IdentifierListReader(InputStream input) throws IOException {
+        this.parser = FACTORY.createParser(input);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+        try {
+            next = read();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("could not parse identifier list", ioe);
+        }
+        done = next == null;
+        return next != null;
+    }
+
+    @Override
+    public Identifier next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var identifier = next;
+        next = null;
+        return identifier;
+    }
+
+    private Identifier read() throws IOException {
+        if (!started) {
+            started = true;
+            if (!seekEntries()) {
+                return null;
+            }
+        }
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        var identifier = new Identifier();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.getCurrentName();
+            var token = parser.nextToken();
+            if ("path".equals(name)) {
+                identifier.path = parser.getValueAsString();
+            } else if ("timestamp".equals(name)) {
+                identifier.timestamp = token == JsonToken.VALUE_NULL ? null : parser.getValueAsLong();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return identifier;
+    }
+
+    /**
+     * Move the parser to the start of the entries array.
+     *
+     * @return false if the response has no entries.
+     */
+    private boolean seekEntries() throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("expected an object, got " + parser.currentToken());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var name = parser.getCurrentName();
+            var token = parser.nextToken();
+            if ("entries".equals(name) && token == JsonToken.START_ARRAY) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        parser.close();
+    }
+}
@@ -0,0 +1,58 @@
+package no.ssb.dapla.datamaintenance.catalog;
+
+import no.ssb.dapla.catalog.protobuf.DeleteDatasetRequest;
+import no.ssb.dapla.catalog.protobuf.DeleteDatasetResponse;
+import no.ssb.dapla.datamaintenance.Resilience;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link CatalogClient} that sends every call through {@link Resilience}. Only the listings are hedged.
+ */
+class ResilientCatalogClient implements CatalogClient {
+
+    private final CatalogClient delegate;
+    private final Resilience resilience;
+
+    ResilientCatalogClient(CatalogClient delegate, Resilience resilience) {
+        this.delegate = delegate;
+        this.resilience = resilience;
+    }
+
+    @Override
+    public CompletionStage<IdentifierList> folderAsync(String prefix, Instant version, Integer limit,
+                                                       String cursor) {
+        return resilience.idempotent(() -> delegate.folderAsync(prefix, version, limit, cursor));
+    }
+
+    @Override
+    public CompletionStage<IdentifierList> datasetAsync(String prefix, Instant version, Integer limit,
+                                                        String cursor) {
+        return resilience.idempotent(() -> delegate.datasetAsync(prefix, version, limit, cursor));
+    }
+
+    @Override
+    public CompletionStage<IdentifierList> pathAsync(String prefix, Instant version, Integer limit) {
+        return resilience.idempotent(() -> delegate.pathAsync(prefix, version, limit));
+    }
+
+    @Override
+    public CompletionStage<IdentifierList> versionAsync(String prefix, Integer limit) {
+        return resilience.idempotent(() -> delegate.versionAsync(prefix, limit));
+    }
+
+    /**
+     * Not hedged since the response of the losing request would hold on to a connection until it is closed.
+     */
+    @Override
+    public CompletionStage<InputStream> versionStreamAsync(String prefix, Integer limit) {
+        return resilience.call(() -> delegate.versionStreamAsync(prefix, limit));
+    }
+
+    @Override
+    public CompletionStage<DeleteDatasetResponse> deleteAsync(DeleteDatasetRequest request, String authorization) {
+        return resilience.call(() -> delegate.deleteAsync(request, authorization));
+    }
+}
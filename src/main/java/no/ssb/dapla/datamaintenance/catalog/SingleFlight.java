@@ -0,0 +1,131 @@
+package no.ssb.dapla.datamaintenance.catalog;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Shares one call between all the callers that ask for the same key while it is in flight.
+ * <p>
+ * Every caller gets its own future. Cancelling it only detaches that caller; the shared call is cancelled when
+ * the last caller has cancelled. Results and errors are given to every caller that is still attached.
+ */
+class SingleFlight<K, V> {
+
+    private final Map<K, Flight<V>> flights = new HashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    CompletionStage<V> execute(K key, Supplier<? extends CompletionStage<V>> call) {
+        Flight<V> flight;
+        boolean leader;
+        synchronized (flights) {
+            flight = flights.get(key);
+            leader = flight == null;
+            if (leader) {
+                flight = new Flight<>();
+                flights.put(key, flight);
+            }
+            flight.callers++;
+        }
+
+        var caller = new CompletableFuture<V>();
+        var shared = flight;
+        flight.result.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                caller.completeExceptionally(throwable);
+            } else {
+                caller.complete(value);
+            }
+        });
+        caller.whenComplete((value, throwable) -> {
+            if (caller.isCancelled()) {
+                detach(key, shared);
+            }
+        });
+
+        if (leader) {
+            calls.increment();
+            start(key, flight, call);
+        } else {
+            coalesced.increment();
+        }
+        return caller;
+    }
+
+    private void start(K key, Flight<V> flight, Supplier<? extends CompletionStage<V>> call) {
+        CompletionStage<V> upstream;
+        try {
+            upstream = call.get();
+        } catch (RuntimeException re) {
+            upstream = CompletableFuture.failedFuture(re);
+        }
+        synchronized (flights) {
+            flight.upstream = upstream;
+        }
+        if (flight.result.isCancelled()) {
+            upstream.toCompletableFuture().cancel(true);
+            return;
+        }
+        upstream.whenComplete((value, throwable) -> {
+            synchronized (flights) {
+                flights.remove(key, flight);
+            }
+            if (throwable != null) {
+                flight.result.completeExceptionally(throwable);
+            } else {
+                flight.result.complete(value);
+            }
+        });
+    }
+
+    private void detach(K key, Flight<V> flight) {
+        CompletionStage<V> upstream;
+        synchronized (flights) {
+            flight.callers--;
+            if (flight.callers > 0 || flight.result.isDone()) {
+                return;
+            }
+            flights.remove(key, flight);
+            upstream = flight.upstream;
+        }
+        flight.result.cancel(false);
+        if (upstream != null) {
+            upstream.toCompletableFuture().cancel(true);
+        }
+    }
+
+    /**
+     * Stop sharing the calls in flight for the matching keys. Their current callers still get their results,
+     * but later callers make a new call.
+     */
+    void forgetIf(Predicate<? super K> predicate) {
+        synchronized (flights) {
+            flights.keySet().removeIf(predicate);
+        }
+    }
+
+    int inFlight() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+
+    long calls() {
+        return calls.sum();
+    }
+
+    long coalesced() {
+        return coalesced.sum();
+    }
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private CompletionStage<V> upstream;
+        private int callers;
+    }
+}
@@ -0,0 +1,54 @@
+package no.ssb.dapla.datamaintenance.model;
+
+import java.util.Objects;
+
+/**
+ * A dataset that could not be deleted during a recursive delete. The other datasets are still deleted.
+ */
+public final class DatasetDeleteError {
+
+    private final String datasetPath;
+    private final Integer status;
+    private final String error;
+
+    public DatasetDeleteError(String datasetPath, Integer status, String error) {
+        this.datasetPath = datasetPath;
+        this.status = status;
+        this.error = error;
+    }
+
+    public String getDatasetPath() {
+        return datasetPath;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (obj == null || obj.getClass() != this.getClass()) return false;
+        var that = (DatasetDeleteError) obj;
+        return Objects.equals(this.datasetPath, that.datasetPath) &&
+               Objects.equals(this.status, that.status) &&
+               Objects.equals(this.error, that.error);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(datasetPath, status, error);
+    }
+
+    @Override
+    public String toString() {
+        return "DatasetDeleteError[" +
+               "datasetPath=" + datasetPath + ", " +
+               "status=" + status + ", " +
+               "error=" + error + ']';
+    }
+}
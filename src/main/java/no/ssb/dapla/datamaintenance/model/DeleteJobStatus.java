@@ -0,0 +1,164 @@
+package no.ssb.dapla.datamaintenance.model;
+
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Snapshot of an asynchronous delete job.
+ * <p>
+ * The counters are null until the delete tokens are fetched. The result is only set when the job succeeded.
+ */
+public final class DeleteJobStatus {
+
+    private final String id;
+    private final String datasetPath;
+    private final Boolean dryRun;
+    private final State state;
+    private final Instant submitted;
+    private final Instant started;
+    private final Instant finished;
+    private final Long versions;
+    private final Long versionsProcessed;
+    private final Long objectsDeleted;
+    private final Long bytesFreed;
+    private final Double objectsPerSecond;
+    private final Double bytesPerSecond;
+    private final String error;
+    private final DeleteResponse result;
+
+    public DeleteJobStatus(String id, String datasetPath, Boolean dryRun, State state, Instant submitted,
+                           Instant started, Instant finished, Long versions, Long versionsProcessed,
+                           Long objectsDeleted, Long bytesFreed, Double objectsPerSecond, Double bytesPerSecond,
+                           String error, DeleteResponse result) {
+        this.id = id;
+        this.datasetPath = datasetPath;
+        this.dryRun = dryRun;
+        this.state = state;
+        this.submitted = submitted;
+        this.started = started;
+        this.finished = finished;
+        this.versions = versions;
+        this.versionsProcessed = versionsProcessed;
+        this.objectsDeleted = objectsDeleted;
+        this.bytesFreed = bytesFreed;
+        this.objectsPerSecond = objectsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.error = error;
+        this.result = result;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDatasetPath() {
+        return datasetPath;
+    }
+
+    public Boolean getDryRun() {
+        return dryRun;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getSubmitted() {
+        return submitted;
+    }
+
+    public Instant getStarted() {
+        return started;
+    }
+
+    public Instant getFinished() {
+        return finished;
+    }
+
+    public Long getVersions() {
+        return versions;
+    }
+
+    public Long getVersionsProcessed() {
+        return versionsProcessed;
+    }
+
+    public Long getObjectsDeleted() {
+        return objectsDeleted;
+    }
+
+    public Long getBytesFreed() {
+        return bytesFreed;
+    }
+
+    public Double getObjectsPerSecond() {
+        return objectsPerSecond;
+    }
+
+    public Double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public DeleteResponse getResult() {
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (obj == null || obj.getClass() != this.getClass()) return false;
+        var that = (DeleteJobStatus) obj;
+        return Objects.equals(this.id, that.id) &&
+               Objects.equals(this.datasetPath, that.datasetPath) &&
+               Objects.equals(this.dryRun, that.dryRun) &&
+               this.state == that.state &&
+               Objects.equals(this.submitted, that.submitted) &&
+               Objects.equals(this.started, that.started) &&
+               Objects.equals(this.finished, that.finished) &&
+               Objects.equals(this.versions, that.versions) &&
+               Objects.equals(this.versionsProcessed, that.versionsProcessed) &&
+               Objects.equals(this.objectsDeleted, that.objectsDeleted) &&
+               Objects.equals(this.bytesFreed, that.bytesFreed) &&
+               Objects.equals(this.error, that.error) &&
+               Objects.equals(this.result, that.result);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, datasetPath, dryRun, state, submitted, started, finished, versions,
+                versionsProcessed, objectsDeleted, bytesFreed, error, result);
+    }
+
+    @Override
+    public String toString() {
+        return "DeleteJobStatus[" +
+               "id=" + id + ", " +
+               "datasetPath=" + datasetPath + ", " +
+               "dryRun=" + dryRun + ", " +
+               "state=" + state + ", " +
+               "versions=" + versions + ", " +
+               "versionsProcessed=" + versionsProcessed + ", " +
+               "objectsDeleted=" + objectsDeleted + ", " +
+               "bytesFreed=" + bytesFreed + ", " +
+               "error=" + error + ']';
+    }
+
+    public enum State {
+        /**
+         * Waiting for a free worker.
+         */
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED;
+
+        public boolean isDone() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+}
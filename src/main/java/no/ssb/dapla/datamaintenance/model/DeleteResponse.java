@@ -3,6 +3,7 @@ package no.ssb.dapla.datamaintenance.model;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
@@ -32,8 +33,7 @@ public final class DeleteResponse {
 
     public Long getTotalSize() {
         return deletedVersions.stream()
-                .flatMap(datasetVersion -> datasetVersion.deletedFiles.stream())
-                .mapToLong(deletedFile -> deletedFile.size).sum();
+                .mapToLong(DatasetVersion::getTotalSize).sum();
     }
 
     @Override
@@ -59,6 +59,20 @@ public final class DeleteResponse {
                "dryRun=" + dryRun + ']';
     }
 
+    /**
+     * Level of detail of the delete response.
+     */
+    public enum Detail {
+        /**
+         * List every deleted file.
+         */
+        FULL,
+        /**
+         * Only count the files and bytes of each version, and list the largest files.
+         */
+        SUMMARY
+    }
+
     public static final class DatasetVersion {
 
         public Instant getTimestamp() {
@@ -69,13 +83,48 @@ public final class DeleteResponse {
             return deletedFiles;
         }
 
+        public Long getObjectCount() {
+            return objectCount;
+        }
+
+        public Long getTotalSize() {
+            return totalSize;
+        }
+
+        /**
+         * The largest files of the version, only set for {@link Detail#SUMMARY}.
+         */
+        public List<DeletedFile> getLargestFiles() {
+            return largestFiles;
+        }
+
         private final Instant timestamp;
         private final Set<DeletedFile> deletedFiles;
+        private final Long objectCount;
+        private final Long totalSize;
+        private final List<DeletedFile> largestFiles;
 
         public DatasetVersion(Instant timestamp,
                               Collection<DeletedFile> deletedFiles) {
             this.timestamp = timestamp;
             this.deletedFiles = new HashSet<>(deletedFiles);
+            this.objectCount = (long) this.deletedFiles.size();
+            // Like VersionSummary, files of unknown size (null or -1) do not count towards the total.
+            this.totalSize = this.deletedFiles.stream()
+                    .map(DeletedFile::getSize)
+                    .filter(size -> size != null && size >= 0)
+                    .mapToLong(Long::longValue)
+                    .sum();
+            this.largestFiles = null;
+        }
+
+        public DatasetVersion(Instant timestamp, Long objectCount, Long totalSize,
+                              List<DeletedFile> largestFiles) {
+            this.timestamp = timestamp;
+            this.deletedFiles = Set.of();
+            this.objectCount = objectCount;
+            this.totalSize = totalSize;
+            this.largestFiles = List.copyOf(largestFiles);
         }
 
         @Override
@@ -84,19 +133,25 @@ public final class DeleteResponse {
             if (obj == null || obj.getClass() != this.getClass()) return false;
             var that = (DatasetVersion) obj;
             return Objects.equals(this.timestamp, that.timestamp) &&
-                   Objects.equals(this.deletedFiles, that.deletedFiles);
+                   Objects.equals(this.deletedFiles, that.deletedFiles) &&
+                   Objects.equals(this.objectCount, that.objectCount) &&
+                   Objects.equals(this.totalSize, that.totalSize) &&
+                   Objects.equals(this.largestFiles, that.largestFiles);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(timestamp, deletedFiles);
+            return Objects.hash(timestamp, deletedFiles, objectCount, totalSize, largestFiles);
         }
 
         @Override
         public String toString() {
             return "DatasetVersion[" +
                    "timestamp=" + timestamp + ", " +
-                   "deletedFiles=" + deletedFiles + ']';
+                   "deletedFiles=" + deletedFiles + ", " +
+                   "objectCount=" + objectCount + ", " +
+                   "totalSize=" + totalSize + ", " +
+                   "largestFiles=" + largestFiles + ']';
         }
 
     }
@@ -0,0 +1,80 @@
+package no.ssb.dapla.datamaintenance.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Result of a recursive delete: the deleted datasets and the ones that failed.
+ */
+public final class TreeDeleteResponse {
+
+    private final String path;
+    private final Boolean dryRun;
+    private final List<DeleteResponse> datasets = new ArrayList<>();
+    private final List<DatasetDeleteError> errors = new ArrayList<>();
+
+    public TreeDeleteResponse(String path, Boolean dryRun) {
+        this.path = path;
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Add a DeleteResponse or a DatasetDeleteError.
+     */
+    public TreeDeleteResponse add(Object result) {
+        if (result instanceof DeleteResponse) {
+            datasets.add((DeleteResponse) result);
+        } else if (result instanceof DatasetDeleteError) {
+            errors.add((DatasetDeleteError) result);
+        } else {
+            throw new IllegalArgumentException("unexpected result " + result);
+        }
+        return this;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Boolean getDryRun() {
+        return dryRun;
+    }
+
+    public List<DeleteResponse> getDatasets() {
+        return datasets;
+    }
+
+    public List<DatasetDeleteError> getErrors() {
+        return errors;
+    }
+
+    public Long getTotalSize() {
+        return datasets.stream().mapToLong(DeleteResponse::getTotalSize).sum();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (obj == null || obj.getClass() != this.getClass()) return false;
+        var that = (TreeDeleteResponse) obj;
+        return Objects.equals(this.path, that.path) &&
+               Objects.equals(this.dryRun, that.dryRun) &&
+               Objects.equals(this.datasets, that.datasets) &&
+               Objects.equals(this.errors, that.errors);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, dryRun, datasets, errors);
+    }
+
+    @Override
+    public String toString() {
+        return "TreeDeleteResponse[" +
+               "path=" + path + ", " +
+               "dryRun=" + dryRun + ", " +
+               "datasets=" + datasets + ", " +
+               "errors=" + errors + ']';
+    }
+}
@@ -0,0 +1,52 @@
+package no.ssb.dapla.datamaintenance.model;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Constant memory aggregate of the files of a dataset version.
+ * <p>
+ * Only counts and bytes are kept, plus the largest files seen so far.
+ */
+public final class VersionSummary {
+
+    public static final int LARGEST_FILES = 10;
+
+    private static final Comparator<DeleteResponse.DeletedFile> BY_SIZE =
+            Comparator.comparingLong(DeleteResponse.DeletedFile::getSize);
+
+    private final PriorityQueue<DeleteResponse.DeletedFile> largest = new PriorityQueue<>(BY_SIZE);
+    private long objectCount = 0;
+    private long totalSize = 0;
+
+    public void add(Path path, Long size) {
+        objectCount++;
+        if (size == null || size < 0) {
+            return;
+        }
+        totalSize += size;
+        if (largest.size() < LARGEST_FILES) {
+            largest.add(new DeleteResponse.DeletedFile(path.toUri().toString(), size));
+        } else if (largest.peek().getSize() < size) {
+            largest.poll();
+            largest.add(new DeleteResponse.DeletedFile(path.toUri().toString(), size));
+        }
+    }
+
+    public long getObjectCount() {
+        return objectCount;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public DeleteResponse.DatasetVersion toDatasetVersion(Instant timestamp) {
+        var largestFiles = new ArrayList<>(largest);
+        largestFiles.sort(BY_SIZE.reversed());
+        return new DeleteResponse.DatasetVersion(timestamp, objectCount, totalSize, largestFiles);
+    }
+}
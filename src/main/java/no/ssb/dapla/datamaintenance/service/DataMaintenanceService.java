@@ -1,26 +1,29 @@
 package no.ssb.dapla.datamaintenance.service;
 
 
-import com.google.auth.oauth2.AccessToken;
-import com.google.auth.oauth2.OAuth2Credentials;
 import io.helidon.common.http.Http;
 import io.helidon.common.reactive.Multi;
 import io.helidon.common.reactive.Single;
+import io.helidon.config.Config;
 import io.helidon.security.jwt.JwtException;
 import io.helidon.security.jwt.SignedJwt;
 import io.helidon.webserver.HttpException;
-import joptsimple.internal.Strings;
-import no.ssb.dapla.data.access.protobuf.DeleteLocationResponse;
+import no.ssb.dapla.datamaintenance.AsyncLimiter;
 import no.ssb.dapla.datamaintenance.access.DataAccessService;
 import no.ssb.dapla.datamaintenance.catalog.CatalogService;
+import no.ssb.dapla.datamaintenance.model.DatasetDeleteError;
 import no.ssb.dapla.datamaintenance.model.DatasetListElement;
+import no.ssb.dapla.datamaintenance.model.DeleteJobStatus;
 import no.ssb.dapla.datamaintenance.model.DeleteResponse;
+import no.ssb.dapla.datamaintenance.model.DeleteResponse.Detail;
+import no.ssb.dapla.datamaintenance.model.TreeDeleteResponse;
 import no.ssb.dapla.datamaintenance.storage.StorageService;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.glassfish.jersey.server.ChunkedOutput;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,27 +32,29 @@ import javax.inject.Inject;
 import javax.json.Json;
 import javax.json.JsonBuilderFactory;
 import javax.json.JsonObject;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import java.net.URI;
 import java.time.Instant;
-import java.util.AbstractMap;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import static no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
 
@@ -59,16 +64,43 @@ public class DataMaintenanceService {
 
     private static final JsonBuilderFactory JSON = Json.createBuilderFactory(Collections.emptyMap());
     private static final Logger LOG = LoggerFactory.getLogger(DataMaintenanceService.class);
+    private static final Jsonb JSONB = JsonbBuilder.create();
+
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+    static final int LIST_PAGE_SIZE = 1000;
+    static final int DEFAULT_TREE_CONCURRENCY = 8;
 
     private final CatalogService catalogService;
-    private final StorageService storageService;
-    private final DataAccessService dataAccessService;
+    private final DeletePipeline deletePipeline;
+    private final DeleteJobs deleteJobs;
+    private final int treeConcurrency;
+    private final AsyncLimiter treeListings;
 
     @Inject
+    public DataMaintenanceService(CatalogService catalogService, StorageService storageService,
+                                  DataAccessService dataAccessService, Config config) {
+        this(catalogService,
+                DeletePipeline.create(catalogService, storageService, dataAccessService, config.get("delete")),
+                DeleteJobs.create(config.get("delete.jobs")),
+                config.get("catalog.tree-concurrency").asInt().orElse(DEFAULT_TREE_CONCURRENCY));
+        deleteJobs.registerMetrics("delete.jobs");
+    }
+
     public DataMaintenanceService(CatalogService catalogService, StorageService storageService, DataAccessService dataAccessService) {
+        this(catalogService,
+                DeletePipeline.create(catalogService, storageService, dataAccessService, Config.empty()),
+                DeleteJobs.create(Config.empty()),
+                DEFAULT_TREE_CONCURRENCY);
+    }
+
+    DataMaintenanceService(CatalogService catalogService, DeletePipeline deletePipeline, DeleteJobs deleteJobs,
+                           int treeConcurrency) {
         this.catalogService = Objects.requireNonNull(catalogService);
-        this.storageService = Objects.requireNonNull(storageService);
-        this.dataAccessService = Objects.requireNonNull(dataAccessService);
+        this.deletePipeline = Objects.requireNonNull(deletePipeline);
+        this.deleteJobs = Objects.requireNonNull(deleteJobs);
+        this.treeConcurrency = treeConcurrency;
+        // Shared by all requests so that the catalog calls of every tree together are bounded, whatever their depth.
+        this.treeListings = new AsyncLimiter(treeConcurrency);
     }
 
     // TODO: Review the model here.
@@ -105,34 +137,167 @@ public class DataMaintenanceService {
             )
     )
     @Produces(MediaType.APPLICATION_JSON)
-    public CompletionStage<List<DatasetListElement>> list(@PathParam("path") String path) throws ExecutionException, InterruptedException {
+    public CompletionStage<List<DatasetListElement>> list(@PathParam("path") String path) {
         LOG.info("Listing datasets on path {}", path);
+        return listElements(path).collectList();
+    }
+
+    @GET
+    @Path("/list/{path: .*}")
+    @Operation(summary = "Stream datasets",
+            description = "List datasets with metadata on given path, one JSON object per line as they are read "
+                          + "from the catalog")
+    @APIResponse(
+            description = "Datasets with metadata on given path, newline delimited",
+            content = @Content(
+                    mediaType = APPLICATION_NDJSON,
+                    schema = @Schema(implementation = DatasetListElement.class)
+            )
+    )
+    @Produces(APPLICATION_NDJSON)
+    public CompletionStage<ChunkedOutput<String>> listStream(@PathParam("path") String path) {
+        LOG.info("Streaming datasets on path {}", path);
+        return streamNdJson(listElements(path));
+    }
 
+    /**
+     * Folders then datasets under path, following the catalog cursors page by page.
+     * <p>
+     * Fails with 404 before the first element if the path does not exist.
+     */
+    private Multi<DatasetListElement> listElements(String path) {
         var now = Instant.now();
-        var limit = 1000;
 
-        // We fire three call to catalog: path to check that the path exists, folder to list the folders
-        // under the path, and dataset to list the datasets under the path.
-        // Note that the calls are made simultaneously regardless of the result of the path call.
+        // We fire two calls to catalog: folder to list the folders under the path, and dataset to list the
+        // datasets under the path. Any entry proves that the path exists, so the path call is only made to
+        // tell an empty folder from a missing one.
 
-        var folders = catalogService.getFolders(path, now, limit)
+        var folders = catalogService.getAllFolders(path, now, LIST_PAGE_SIZE)
                 .map(DataMaintenanceService::toFolder);
 
-        var datasets = catalogService.getDatasets(path, now, limit)
+        var datasets = catalogService.getAllDatasets(path, now, LIST_PAGE_SIZE)
                 .map(DataMaintenanceService::toDataset);
 
-        return catalogService.doesPathExist(path, now)
-                .flatMapSingle(exists -> {
-                    // Check that the path exists.
-                    if (!exists) {
-                        // Could also throw here.
-                        return Single.error(new HttpException("Cannot access '" + path + "': No such dataset or folder",
-                                Http.Status.NOT_FOUND_404));
-                    } else {
-                        // Merge the two calls.
-                        return Multi.concat(folders, datasets).collectList();
-                    }
-                });
+        return orNotFound(Multi.concat(folders, datasets), path, now);
+    }
+
+    /**
+     * Fail with 404 if elements is empty and the path does not exist. Any element proves that it exists.
+     */
+    private Multi<DatasetListElement> orNotFound(Multi<DatasetListElement> elements, String path, Instant now) {
+        var found = new AtomicBoolean();
+        var existence = Multi.defer(() -> found.get() ? Multi.<DatasetListElement>empty() :
+                catalogService.doesPathExist(path, now).flatMap(exists -> exists ?
+                        Multi.<DatasetListElement>empty() :
+                        Multi.error(new HttpException("Cannot access '" + path + "': No such dataset or folder",
+                                Http.Status.NOT_FOUND_404))));
+
+        return Multi.concat(elements.peek(element -> found.set(true)), existence);
+    }
+
+    @GET
+    @Path("/tree/{path: .*}")
+    @Operation(summary = "List datasets recursively",
+            description = "List the datasets and folders under the given path and all its sub folders")
+    @APIResponse(
+            description = "Datasets and folders under the given path",
+            content = @Content(
+                    mediaType = MediaType.APPLICATION_JSON,
+                    schema = @Schema(implementation = DatasetListElement.class)
+            )
+    )
+    @Produces(MediaType.APPLICATION_JSON)
+    public CompletionStage<List<DatasetListElement>> tree(
+            @PathParam("path") String path,
+            @QueryParam("max-depth") Integer maxDepth
+    ) {
+        LOG.info("Listing datasets recursively on path {}, max depth {}", path, maxDepth);
+        return treeElements(path, maxDepth).collectList();
+    }
+
+    @GET
+    @Path("/tree/{path: .*}")
+    @Operation(summary = "Stream datasets recursively",
+            description = "List the datasets and folders under the given path and all its sub folders, one "
+                          + "JSON object per line as they are discovered")
+    @APIResponse(
+            description = "Datasets and folders under the given path, newline delimited",
+            content = @Content(
+                    mediaType = APPLICATION_NDJSON,
+                    schema = @Schema(implementation = DatasetListElement.class)
+            )
+    )
+    @Produces(APPLICATION_NDJSON)
+    public CompletionStage<ChunkedOutput<String>> treeStream(
+            @PathParam("path") String path,
+            @QueryParam("max-depth") Integer maxDepth
+    ) {
+        LOG.info("Streaming datasets recursively on path {}, max depth {}", path, maxDepth);
+        return streamNdJson(treeElements(path, maxDepth));
+    }
+
+    private Multi<DatasetListElement> treeElements(String path, Integer maxDepth) {
+        if (maxDepth != null && maxDepth < 1) {
+            throw new HttpException("invalid max-depth " + maxDepth + ", must be positive",
+                    Http.Status.BAD_REQUEST_400);
+        }
+        var now = Instant.now();
+        return orNotFound(subTree(path, now, 1, maxDepth), path, now);
+    }
+
+    /**
+     * The datasets of path, then each folder followed by its own sub tree. Sub trees of sibling folders are
+     * listed concurrently, so their elements can interleave.
+     */
+    private Multi<DatasetListElement> subTree(String path, Instant now, int depth, Integer maxDepth) {
+        var children = treeListings.submit(() -> {
+            // Both first pages are requested right away.
+            var folders = catalogService.getAllFolders(path, now, LIST_PAGE_SIZE).collectList();
+            var datasets = catalogService.getAllDatasets(path, now, LIST_PAGE_SIZE).collectList();
+            return folders.flatMapSingle(folderList -> datasets.map(datasetList -> List.of(folderList, datasetList)));
+        });
+        return children.flatMap(lists -> {
+            var datasets = Multi.create(lists.get(1)).map(DataMaintenanceService::toDataset);
+            var folders = Multi.create(lists.get(0)).flatMap(folder -> {
+                var element = Multi.just(toFolder(folder));
+                if (maxDepth != null && depth >= maxDepth) {
+                    return element;
+                }
+                return Multi.concat(element, Multi.defer(() -> subTree(folder.path, now, depth + 1, maxDepth)));
+            }, treeConcurrency, false, 1);
+            return Multi.concat(datasets, folders);
+        });
+    }
+
+    /**
+     * Write each element as one line of JSON as soon as it is emitted, see {@link NdJsonWriter}.
+     * <p>
+     * The returned stage waits for the first element, or the end of the stream, so that errors that happen
+     * before anything is written still get a proper status code.
+     */
+    static CompletionStage<ChunkedOutput<String>> streamNdJson(Multi<?> elements) {
+        var writer = new NdJsonWriter(new ChunkedOutput<>(String.class, "\n"));
+        elements.map(JSONB::toJson).subscribe(writer);
+        return writer.started();
+    }
+
+    @GET
+    @Path("/complete/{path: .*}")
+    @Operation(summary = "Complete a path",
+            description = "Folders and datasets whose path starts with the given path, for autocompletion")
+    @APIResponse(
+            description = "Matching paths in alphabetical order",
+            content = @Content(mediaType = MediaType.APPLICATION_JSON)
+    )
+    @Produces(MediaType.APPLICATION_JSON)
+    public CompletionStage<List<String>> complete(
+            @PathParam("path") String path,
+            @DefaultValue("20") @QueryParam("limit") Integer limit
+    ) {
+        if (limit < 1) {
+            throw new HttpException("invalid limit " + limit + ", must be positive", Http.Status.BAD_REQUEST_400);
+        }
+        return catalogService.complete(path, limit);
     }
 
     @DELETE
@@ -157,74 +322,265 @@ public class DataMaintenanceService {
     public CompletionStage<DeleteResponse> delete(
             @PathParam("path") String datasetPath,
             @DefaultValue("true") @QueryParam("dry-run") Boolean dryRun,
+            @DefaultValue("full") @QueryParam("detail") String detailParam,
             @HeaderParam("Authorization") String auth
     ) {
 
         SignedJwt JWT = checkToken(auth);
-        Instant now = Instant.now();
-
-        // Make sure the dataset is not also a folder.
-        Single<Map<Identifier, DeleteLocationResponse>> tokensSingle = catalogService.getDatasetVersions(datasetPath, Integer.MAX_VALUE)
-                .flatMap(identifier ->
-                        dataAccessService.getDeleteToken(identifier.path, identifier.timestamp, JWT.tokenContent())
-                                .map(r -> new AbstractMap.SimpleEntry<>(identifier, r)))
-                .collect(HashMap::new, (m, e) -> m.put(e.getKey(), e.getValue()));
-
-        if (!catalogService.isOnlyDataset(datasetPath, now).await()) {
-            tokensSingle.cancel();
-            throw new HttpException("the path " + datasetPath + " is both a dataset and a folder. You must delete the folder to be able to delete the dataset.",
-                    Http.Status.CONFLICT_409
-            );
-        }
+        Detail detail = parseDetail(detailParam);
+
+        return deletePipeline.delete(datasetPath, JWT, dryRun, detail, new DeleteProgress());
+    }
+
+    public CompletionStage<DeleteResponse> delete(String datasetPath, Boolean dryRun, String auth) {
+        return delete(datasetPath, dryRun, "full", auth);
+    }
+
+    @DELETE
+    @Path("/tree/{path: .*}")
+    @Operation(summary = "Delete datasets recursively",
+            description = "Delete every dataset under the given folder and all its sub folders"
+    )
+    @APIResponse(
+            description = "The deleted datasets, and the datasets that could not be deleted",
+            content = @Content(mediaType = MediaType.APPLICATION_JSON)
+    )
+    @Produces(MediaType.APPLICATION_JSON)
+    public CompletionStage<TreeDeleteResponse> deleteTree(
+            @PathParam("path") String path,
+            @DefaultValue("true") @QueryParam("dry-run") Boolean dryRun,
+            @DefaultValue("summary") @QueryParam("detail") String detailParam,
+            @HeaderParam("Authorization") String auth
+    ) {
+        return treeDeletes(path, dryRun, detailParam, auth)
+                .reduce(() -> new TreeDeleteResponse(path, dryRun), TreeDeleteResponse::add);
+    }
+
+    @DELETE
+    @Path("/tree/{path: .*}")
+    @Operation(summary = "Delete datasets recursively and stream the results",
+            description = "Delete every dataset under the given folder and all its sub folders, one JSON object "
+                          + "per line as each dataset is done"
+    )
+    @APIResponse(
+            description = "One delete response or error per dataset, newline delimited",
+            content = @Content(mediaType = APPLICATION_NDJSON)
+    )
+    @Produces(APPLICATION_NDJSON)
+    public CompletionStage<ChunkedOutput<String>> deleteTreeStream(
+            @PathParam("path") String path,
+            @DefaultValue("true") @QueryParam("dry-run") Boolean dryRun,
+            @DefaultValue("summary") @QueryParam("detail") String detailParam,
+            @HeaderParam("Authorization") String auth
+    ) {
+        return streamNdJson(treeDeletes(path, dryRun, detailParam, auth));
+    }
+
+    /**
+     * Delete each dataset under path as soon as it is listed. A dataset that fails gives a DatasetDeleteError
+     * and does not stop the others.
+     */
+    private Multi<Object> treeDeletes(String path, Boolean dryRun, String detailParam, String auth) {
+        SignedJwt JWT = checkToken(auth);
+        Detail detail = parseDetail(detailParam);
+        LOG.info("Deleting datasets recursively on path {}, dry run {}", path, dryRun);
+        return deleteEach(datasetsUnder(path), dataset -> deletePipeline.deleteVersions(
+                dataset, catalogService.getDatasetVersions(dataset, Integer.MAX_VALUE),
+                JWT, dryRun, detail, new DeleteProgress()));
+    }
+
+    /**
+     * The paths of the datasets under path and all its sub folders, as they are listed.
+     */
+    private Multi<String> datasetsUnder(String path) {
+        var now = Instant.now();
+        // Depth 0 marks a dataset.
+        return orNotFound(subTree(path, now, 1, null), path, now)
+                .filter(element -> element.getDepth() == 0)
+                .map(DatasetListElement::getPath);
+    }
+
+    /**
+     * Run delete for each dataset within the shared dataset concurrency, giving a DeleteResponse or a
+     * DatasetDeleteError per dataset.
+     */
+    private Multi<Object> deleteEach(Multi<String> datasets, Function<String, Single<DeleteResponse>> delete) {
+        return datasets.flatMap(dataset -> deletePipeline.schedule(() -> delete.apply(dataset))
+                        .<Object>map(response -> response)
+                        .onErrorResume(throwable -> toDeleteError(dataset, throwable)),
+                deletePipeline.getDatasetConcurrency(), false, 1);
+    }
 
-        // Cache the result.
-        var tokens = tokensSingle.await(30, TimeUnit.SECONDS);
-
-        // Check that access is allowed for each version.
-        var missingAccess = Multi.just(tokens.entrySet())
-                .filter(r -> !r.getValue().getAccessAllowed())
-                .map(Map.Entry::getKey)
-                .map(identifier -> identifier.path + ", " + Instant.ofEpochMilli(identifier.timestamp))
-                .collectList().await();
-        if (!missingAccess.isEmpty()) {
-            throw new HttpException("missing delete access for versions: \n" + Strings.join(missingAccess, "\n"),
-                    Http.Status.FORBIDDEN_403
-            );
+    static DatasetDeleteError toDeleteError(String datasetPath, Throwable throwable) {
+        var cause = throwable;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
         }
+        LOG.warn("could not delete {}", datasetPath, cause);
+        var status = cause instanceof HttpException ? ((HttpException) cause).status().code() :
+                cause instanceof WebApplicationException ?
+                        ((WebApplicationException) cause).getResponse().getStatus() :
+                        Http.Status.INTERNAL_SERVER_ERROR_500.code();
+        return new DatasetDeleteError(datasetPath, status,
+                cause.getMessage() == null ? cause.toString() : cause.getMessage());
+    }
+
+    @DELETE
+    @Path("/prune/{path: .*}")
+    @Operation(summary = "Prune old versions",
+            description = "Delete the versions of a dataset that are not among the keep-last newest versions and "
+                          + "are older than older-than. With recursive, prune every dataset under the folder instead"
+    )
+    @APIResponse(
+            description = "The pruned datasets, and the datasets that could not be pruned. A dry run reports the "
+                          + "bytes that would be reclaimed",
+            content = @Content(mediaType = MediaType.APPLICATION_JSON)
+    )
+    @Produces(MediaType.APPLICATION_JSON)
+    public CompletionStage<TreeDeleteResponse> prune(
+            @PathParam("path") String path,
+            @QueryParam("keep-last") Integer keepLast,
+            @QueryParam("older-than") String olderThan,
+            @DefaultValue("false") @QueryParam("recursive") Boolean recursive,
+            @DefaultValue("true") @QueryParam("dry-run") Boolean dryRun,
+            @DefaultValue("summary") @QueryParam("detail") String detailParam,
+            @HeaderParam("Authorization") String auth
+    ) {
+        return prunes(path, keepLast, olderThan, recursive, dryRun, detailParam, auth)
+                .reduce(() -> new TreeDeleteResponse(path, dryRun), TreeDeleteResponse::add);
+    }
+
+    @DELETE
+    @Path("/prune/{path: .*}")
+    @Operation(summary = "Prune old versions and stream the results",
+            description = "Prune like the JSON variant, one JSON object per line as each dataset is done"
+    )
+    @APIResponse(
+            description = "One delete response or error per dataset, newline delimited",
+            content = @Content(mediaType = APPLICATION_NDJSON)
+    )
+    @Produces(APPLICATION_NDJSON)
+    public CompletionStage<ChunkedOutput<String>> pruneStream(
+            @PathParam("path") String path,
+            @QueryParam("keep-last") Integer keepLast,
+            @QueryParam("older-than") String olderThan,
+            @DefaultValue("false") @QueryParam("recursive") Boolean recursive,
+            @DefaultValue("true") @QueryParam("dry-run") Boolean dryRun,
+            @DefaultValue("summary") @QueryParam("detail") String detailParam,
+            @HeaderParam("Authorization") String auth
+    ) {
+        return streamNdJson(prunes(path, keepLast, olderThan, recursive, dryRun, detailParam, auth));
+    }
+
+    private Multi<Object> prunes(String path, Integer keepLast, String olderThan, Boolean recursive,
+                                 Boolean dryRun, String detailParam, String auth) {
+        SignedJwt JWT = checkToken(auth);
+        Detail detail = parseDetail(detailParam);
+        var retention = Retention.parse(keepLast, olderThan, Instant.now());
+        LOG.info("Pruning {} keeping {} versions newer than {}, recursive {}, dry run {}",
+                path, keepLast, olderThan, recursive, dryRun);
+        var datasets = recursive ? datasetsUnder(path) : Multi.just(path);
+        return deleteEach(datasets, dataset ->
+                deletePipeline.prune(dataset, retention, JWT, dryRun, detail, new DeleteProgress()));
+    }
+
+    @POST
+    @Path("/jobs/delete/{path: .*}")
+    @Operation(summary = "Submit a dataset delete",
+            description = "Delete a dataset in the background and return a job that can be polled for progress"
+    )
+    @APIResponse(
+            responseCode = "202",
+            description = "Delete job submitted",
+            content = @Content(mediaType = MediaType.APPLICATION_JSON)
+    )
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response submitDelete(
+            @PathParam("path") String datasetPath,
+            @DefaultValue("true") @QueryParam("dry-run") Boolean dryRun,
+            @DefaultValue("summary") @QueryParam("detail") String detailParam,
+            @HeaderParam("Authorization") String auth
+    ) {
+        SignedJwt JWT = checkToken(auth);
+        Detail detail = parseDetail(detailParam);
+        var status = deleteJobs.submit(principalOf(JWT), datasetPath, dryRun,
+                progress -> deletePipeline.delete(datasetPath, JWT, dryRun, detail, progress));
+        return Response.accepted(status).location(URI.create("/api/v1/jobs/" + status.getId())).build();
+    }
 
-        // Mark and delete the versions.
-        Multi.just(tokens.entrySet()).flatMap(e -> {
-            // TODO: Map earlier
-            var parentUri = URI.create(String.join("/",
-                    e.getValue().getParentUri(),
-                    e.getKey().path,
-                    e.getKey().timestamp.toString()
-            ));
-            return storageService.markDelete(parentUri, getoAuth2Credentials(e.getValue()), dryRun)
-                    .flatMapSingle(path -> {
-                        if (!dryRun) {
-                            return catalogService.deleteDatasetVersion(e.getKey().path,
-                                    Instant.ofEpochMilli(e.getKey().timestamp), JWT.tokenContent());
-                        } else {
-                            return Single.just(path);
-                        }
-                    });
-        }).collectList().await(1, TimeUnit.MINUTES);
-
-        // Asynchronously call
-        return Multi.just(tokens.entrySet()).flatMap(e -> {
-            // TODO: Map earlier
-            var parentUri = URI.create(String.join("/",
-                    e.getValue().getParentUri(),
-                    e.getKey().path,
-                    e.getKey().timestamp.toString()
-            ));
-            var version = Instant.ofEpochMilli(e.getKey().timestamp);
-            var credentials = getoAuth2Credentials(e.getValue());
-            return storageService.finishDelete(parentUri, credentials, dryRun).map(pathAndSize ->
-                    new DeleteResponse.DeletedFile(pathAndSize.getPath().toUri().toString(), pathAndSize.getSize())
-            ).collectList().map(deletedFiles -> new DeleteResponse.DatasetVersion(version, deletedFiles));
-        }).collectList().map(versions -> new DeleteResponse(datasetPath, versions, dryRun));
+    @GET
+    @Path("/jobs")
+    @Operation(summary = "List the delete jobs",
+            description = "Status of the delete jobs of the caller that are kept in memory")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<DeleteJobStatus> jobs(@HeaderParam("Authorization") String auth) {
+        return deleteJobs.list(principalOf(checkToken(auth)));
+    }
+
+    @GET
+    @Path("/jobs/{id}")
+    @Operation(summary = "Get a delete job", description = "Progress of a delete job, and its result once done")
+    @APIResponses(
+            value = {
+                    @APIResponse(
+                            description = "Status of the delete job",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON)
+                    ),
+                    @APIResponse(
+                            responseCode = "404",
+                            description = "Job not found",
+                            content = @Content(mediaType = MediaType.TEXT_PLAIN)
+                    )
+            }
+    )
+    @Produces(MediaType.APPLICATION_JSON)
+    public DeleteJobStatus job(@PathParam("id") String id, @HeaderParam("Authorization") String auth) {
+        return deleteJobs.status(principalOf(checkToken(auth)), id).orElseThrow(() -> jobNotFound(id));
+    }
+
+    @DELETE
+    @Path("/jobs/{id}")
+    @Operation(summary = "Cancel a delete job",
+            description = "Stop a queued or running delete job. A delete that has started to remove versions "
+                          + "from the catalog cannot be cancelled, only dry runs can be stopped at any time"
+    )
+    @APIResponses(
+            value = {
+                    @APIResponse(
+                            description = "Status of the cancelled job",
+                            content = @Content(mediaType = MediaType.APPLICATION_JSON)
+                    ),
+                    @APIResponse(
+                            responseCode = "409",
+                            description = "The job is past the point where it can be cancelled",
+                            content = @Content(mediaType = MediaType.TEXT_PLAIN)
+                    )
+            }
+    )
+    @Produces(MediaType.APPLICATION_JSON)
+    public DeleteJobStatus cancelJob(@PathParam("id") String id, @HeaderParam("Authorization") String auth) {
+        return deleteJobs.cancel(principalOf(checkToken(auth)), id).orElseThrow(() -> jobNotFound(id));
+    }
+
+    /**
+     * The subject of the token, which owns the delete jobs it submits.
+     */
+    private static String principalOf(SignedJwt jwt) {
+        return jwt.getJwt().subject().orElseThrow(() ->
+                new HttpException("token has no subject", Http.Status.UNAUTHORIZED_401));
+    }
+
+    private static HttpException jobNotFound(String id) {
+        return new HttpException("no delete job " + id, Http.Status.NOT_FOUND_404);
+    }
+
+    private static Detail parseDetail(String detail) {
+        try {
+            return Detail.valueOf(detail.toUpperCase());
+        } catch (IllegalArgumentException iae) {
+            throw new HttpException("invalid detail " + detail + ", must be full or summary",
+                    Http.Status.BAD_REQUEST_400, iae);
+        }
     }
 
     private SignedJwt checkToken(String auth) throws HttpException {
@@ -241,11 +597,6 @@ public class DataMaintenanceService {
         }
     }
 
-    private OAuth2Credentials getoAuth2Credentials(DeleteLocationResponse resp) {
-        return OAuth2Credentials.create(new AccessToken(resp.getAccessToken(),
-                Date.from(Instant.ofEpochMilli(resp.getExpirationTime()))));
-    }
-
     @Path("/test")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
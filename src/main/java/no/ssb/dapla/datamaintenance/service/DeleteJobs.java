@@ -0,0 +1,257 @@
+package no.ssb.dapla.datamaintenance.service;
+
+import io.helidon.common.http.Http;
+import io.helidon.common.reactive.Single;
+import io.helidon.config.Config;
+import io.helidon.webserver.HttpException;
+import no.ssb.dapla.datamaintenance.ApplicationMetrics;
+import no.ssb.dapla.datamaintenance.AsyncLimiter;
+import no.ssb.dapla.datamaintenance.model.DeleteJobStatus;
+import no.ssb.dapla.datamaintenance.model.DeleteJobStatus.State;
+import no.ssb.dapla.datamaintenance.model.DeleteResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * Bounded in-memory registry of asynchronous delete jobs.
+ * <p>
+ * At most workers jobs run at the same time and the others wait in submit order. When the registry is full the
+ * oldest finished job is forgotten; when every job is still active new jobs are refused with 503.
+ * <p>
+ * Jobs belong to the principal that submitted them and are only visible to it; the jobs of others look like
+ * missing jobs.
+ * <p>
+ * A delete can only be cancelled before it starts marking versions. From then on its versions are gone from
+ * the catalog, so it runs to the end and a cancel is refused with 409. Dry runs can be cancelled at any time.
+ */
+class DeleteJobs {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeleteJobs.class);
+
+    private final AsyncLimiter workers;
+    private final int maxJobs;
+    private final Clock clock;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+
+    DeleteJobs(int workers, int maxJobs, Clock clock) {
+        this.workers = new AsyncLimiter(workers);
+        this.maxJobs = maxJobs;
+        this.clock = clock;
+    }
+
+    /**
+     * @param config the delete.jobs config node.
+     */
+    static DeleteJobs create(Config config) {
+        return new DeleteJobs(
+                config.get("workers").asInt().orElse(4),
+                config.get("max-jobs").asInt().orElse(1000),
+                Clock.systemUTC());
+    }
+
+    /**
+     * Register a job and start it once a worker is free.
+     *
+     * @param task the delete, reporting to the given progress.
+     */
+    DeleteJobStatus submit(String owner, String datasetPath, Boolean dryRun,
+                           Function<DeleteProgress, Single<DeleteResponse>> task) {
+        var job = new Job(UUID.randomUUID().toString(), owner, datasetPath, dryRun, clock.instant());
+        synchronized (this) {
+            if (jobs.size() >= maxJobs && !evictFinished()) {
+                throw new HttpException("too many delete jobs, try again later", Http.Status.SERVICE_UNAVAILABLE_503);
+            }
+            jobs.put(job.id, job);
+        }
+        workers.submit(() -> {
+            job.start();
+            return task.apply(job.progress);
+        }).subscribe(job);
+        return job.status();
+    }
+
+    private boolean evictFinished() {
+        var iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().state.isDone()) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized Optional<Job> find(String owner, String id) {
+        return Optional.ofNullable(jobs.get(id)).filter(job -> job.owner.equals(owner));
+    }
+
+    Optional<DeleteJobStatus> status(String owner, String id) {
+        return find(owner, id).map(Job::status);
+    }
+
+    synchronized List<DeleteJobStatus> list(String owner) {
+        var statuses = new ArrayList<DeleteJobStatus>();
+        for (Job job : jobs.values()) {
+            if (job.owner.equals(owner)) {
+                statuses.add(job.status());
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Cancel a queued or running job. Finished jobs are left as they are.
+     *
+     * @throws HttpException with 409 if the job has started to remove versions from the catalog.
+     */
+    Optional<DeleteJobStatus> cancel(String owner, String id) {
+        var found = find(owner, id);
+        if (found.isEmpty()) {
+            return Optional.empty();
+        }
+        var job = found.get();
+        job.cancel();
+        return Optional.of(job.status());
+    }
+
+    synchronized long count(State state) {
+        return jobs.values().stream().filter(job -> job.state == state).count();
+    }
+
+    void registerMetrics(String prefix) {
+        ApplicationMetrics.gauge(prefix + ".queued", () -> count(State.QUEUED));
+        ApplicationMetrics.gauge(prefix + ".running", () -> count(State.RUNNING));
+        ApplicationMetrics.gauge(prefix + ".failed", () -> count(State.FAILED));
+    }
+
+    private final class Job implements Flow.Subscriber<DeleteResponse> {
+
+        private final String id;
+        private final String owner;
+        private final String datasetPath;
+        private final Boolean dryRun;
+        private final Instant submitted;
+        private final DeleteProgress progress = new DeleteProgress();
+
+        private volatile State state = State.QUEUED;
+        private volatile Instant started;
+        private volatile Instant finished;
+        private volatile String error;
+        private volatile DeleteResponse result;
+        private Flow.Subscription subscription;
+
+        private Job(String id, String owner, String datasetPath, Boolean dryRun, Instant submitted) {
+            this.id = id;
+            this.owner = owner;
+            this.datasetPath = datasetPath;
+            this.dryRun = dryRun;
+            this.submitted = submitted;
+        }
+
+        private synchronized void start() {
+            if (state == State.QUEUED) {
+                state = State.RUNNING;
+                started = clock.instant();
+                LOG.info("started delete job {} of {}", id, datasetPath);
+            }
+        }
+
+        private void cancel() {
+            Flow.Subscription toCancel;
+            synchronized (this) {
+                if (state.isDone()) {
+                    return;
+                }
+                if (!progress.cancelBeforeMarking() && !dryRun) {
+                    throw new HttpException("delete job " + id + " has started to remove versions from the "
+                                            + "catalog and cannot be cancelled", Http.Status.CONFLICT_409);
+                }
+                if (!finish(State.CANCELLED)) {
+                    return;
+                }
+                toCancel = subscription;
+            }
+            if (toCancel != null) {
+                toCancel.cancel();
+            }
+        }
+
+        /**
+         * @return false when the job was already done.
+         */
+        private synchronized boolean finish(State state) {
+            if (this.state.isDone()) {
+                return false;
+            }
+            this.state = state;
+            finished = clock.instant();
+            LOG.info("delete job {} of {} {}", id, datasetPath, state);
+            return true;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            boolean cancelled;
+            synchronized (this) {
+                this.subscription = subscription;
+                cancelled = state == State.CANCELLED;
+            }
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(DeleteResponse item) {
+            result = item;
+            finish(State.SUCCEEDED);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable.getMessage() == null ? throwable.toString() : throwable.getMessage();
+            if (finish(State.FAILED)) {
+                LOG.warn("delete job {} of {} failed", id, datasetPath, throwable);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        private DeleteJobStatus status() {
+            var state = this.state;
+            var started = this.started;
+            var finished = this.finished;
+            var versions = progress.getVersions();
+            Double objectsPerSecond = null;
+            Double bytesPerSecond = null;
+            if (started != null) {
+                var end = finished != null ? finished : clock.instant();
+                var seconds = Math.max(Duration.between(started, end).toMillis(), 1) / 1000.0;
+                objectsPerSecond = progress.getObjects() / seconds;
+                bytesPerSecond = progress.getBytes() / seconds;
+            }
+            return new DeleteJobStatus(id, datasetPath, dryRun, state, submitted, started, finished,
+                    versions < 0 ? null : versions,
+                    versions < 0 ? null : progress.getVersionsProcessed(),
+                    versions < 0 ? null : progress.getObjects(),
+                    versions < 0 ? null : progress.getBytes(),
+                    objectsPerSecond, bytesPerSecond, error, state == State.SUCCEEDED ? result : null);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package no.ssb.dapla.datamaintenance.service;
+
+import io.helidon.common.http.Http;
+import io.helidon.common.reactive.Multi;
+import io.helidon.common.reactive.Single;
+import io.helidon.config.Config;
+import io.helidon.security.jwt.SignedJwt;
+import io.helidon.webserver.HttpException;
+import joptsimple.internal.Strings;
+import no.ssb.dapla.data.access.protobuf.DeleteLocationResponse;
+import no.ssb.dapla.datamaintenance.AsyncLimiter;
+import no.ssb.dapla.datamaintenance.access.DataAccessService;
+import no.ssb.dapla.datamaintenance.catalog.CatalogService;
+import no.ssb.dapla.datamaintenance.model.DeleteResponse;
+import no.ssb.dapla.datamaintenance.model.DeleteResponse.Detail;
+import no.ssb.dapla.datamaintenance.model.VersionSummary;
+import no.ssb.dapla.datamaintenance.storage.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
+
+/**
+ * The delete of a dataset: conflict check, delete tokens, access check, then the mark and finish phases of the
+ * storage service. Shared by the delete endpoints and the delete jobs.
+ * <p>
+ * Recursive deletes run their datasets through a limiter shared by all requests, so that concurrent cleanups
+ * together never delete more than datasetConcurrency datasets at the same time.
+ */
+class DeletePipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeletePipeline.class);
+
+    static final int TOKEN_PROGRESS_INTERVAL = 100;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "delete-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CatalogService catalogService;
+    private final StorageService storageService;
+    private final DataAccessService dataAccessService;
+    private final int tokenConcurrency;
+    private final Duration tokenTimeout;
+    private final int datasetConcurrency;
+    private final AsyncLimiter datasets;
+
+    DeletePipeline(CatalogService catalogService, StorageService storageService,
+                   DataAccessService dataAccessService, int tokenConcurrency, Duration tokenTimeout,
+                   int datasetConcurrency) {
+        this.catalogService = Objects.requireNonNull(catalogService);
+        this.storageService = Objects.requireNonNull(storageService);
+        this.dataAccessService = Objects.requireNonNull(dataAccessService);
+        this.tokenConcurrency = tokenConcurrency;
+        this.tokenTimeout = tokenTimeout;
+        this.datasetConcurrency = datasetConcurrency;
+        this.datasets = new AsyncLimiter(datasetConcurrency);
+    }
+
+    /**
+     * @param config the delete config node.
+     */
+    static DeletePipeline create(CatalogService catalogService, StorageService storageService,
+                                 DataAccessService dataAccessService, Config config) {
+        return new DeletePipeline(catalogService, storageService, dataAccessService,
+                config.get("token-concurrency").asInt().orElse(16),
+                Duration.ofSeconds(config.get("token-timeout-seconds").asLong().orElse(30L)),
+                config.get("dataset-concurrency").asInt().orElse(8));
+    }
+
+    /**
+     * Delete every version of the dataset at datasetPath. Fails with 409 if the path is also a folder.
+     * <p>
+     * The delete tokens are fetched while the conflict check runs, but nothing is marked before it has passed.
+     */
+    Single<DeleteResponse> delete(String datasetPath, SignedJwt jwt, Boolean dryRun, Detail detail,
+                                  DeleteProgress progress) {
+        Instant now = Instant.now();
+        return Single.defer(() -> {
+            var tokens = fetchTokens(datasetPath, catalogService.getDatasetVersions(datasetPath, Integer.MAX_VALUE),
+                    jwt).toStage().toCompletableFuture();
+            Single<Map<Identifier, DeleteLocationResponse>> checked = catalogService.isOnlyDataset(datasetPath, now)
+                    .flatMapSingle(onlyDataset -> {
+                        // Make sure the dataset is not also a folder.
+                        if (!onlyDataset) {
+                            tokens.cancel(true);
+                            return Single.<Map<Identifier, DeleteLocationResponse>>error(new HttpException(
+                                    "the path " + datasetPath + " is both a dataset and a folder. You must delete the folder to be able to delete the dataset.",
+                                    Http.Status.CONFLICT_409
+                            ));
+                        }
+                        return Single.create(tokens);
+                    })
+                    .onError(throwable -> tokens.cancel(true))
+                    .onCancel(() -> tokens.cancel(true));
+            return deleteWithTokens(datasetPath, checked, jwt, dryRun, detail, progress);
+        });
+    }
+
+    /**
+     * Delete the given versions of the dataset at datasetPath, without checking whether it is also a folder.
+     */
+    Single<DeleteResponse> deleteVersions(String datasetPath, Multi<Identifier> versions, SignedJwt jwt,
+                                          Boolean dryRun, Detail detail, DeleteProgress progress) {
+        return deleteWithTokens(datasetPath, fetchTokens(datasetPath, versions, jwt), jwt, dryRun, detail, progress);
+    }
+
+    /**
+     * Fetch the tokens as the versions arrive, at most tokenConcurrency at the same time.
+     */
+    private Single<Map<Identifier, DeleteLocationResponse>> fetchTokens(String datasetPath,
+                                                                        Multi<Identifier> versions,
+                                                                        SignedJwt jwt) {
+        var fetched = new AtomicInteger();
+        Single<Map<Identifier, DeleteLocationResponse>> tokens = versions
+                .flatMap(identifier ->
+                        dataAccessService.getDeleteToken(identifier.path, identifier.timestamp, jwt.tokenContent())
+                                .map(r -> new AbstractMap.SimpleEntry<>(identifier, r)),
+                        tokenConcurrency, false, tokenConcurrency)
+                .peek(entry -> {
+                    var count = fetched.incrementAndGet();
+                    if (count % TOKEN_PROGRESS_INTERVAL == 0) {
+                        LOG.info("fetched {} delete tokens for {}", count, datasetPath);
+                    }
+                })
+                .collect(HashMap::new, (m, e) -> m.put(e.getKey(), e.getValue()));
+        return tokens.timeout(tokenTimeout.toMillis(), TimeUnit.MILLISECONDS, TIMER);
+    }
+
+    private Single<DeleteResponse> deleteWithTokens(String datasetPath,
+                                                    Single<Map<Identifier, DeleteLocationResponse>> tokensSingle,
+                                                    SignedJwt jwt, Boolean dryRun, Detail detail,
+                                                    DeleteProgress progress) {
+        return tokensSingle
+                .flatMapSingle(tokens -> {
+                    LOG.info("fetched {} delete tokens for {}", tokens.size(), datasetPath);
+                    return checkAccess(tokens);
+                })
+                .peek(tokens -> progress.setVersions(tokens.size()))
+                .flatMapSingle(tokens -> {
+                    if (!progress.startMarking()) {
+                        return Single.<Map<Identifier, DeleteLocationResponse>>error(
+                                new CancellationException("delete of " + datasetPath + " was cancelled"));
+                    }
+                    return markVersions(tokens, jwt, dryRun)
+                            .timeout(1, TimeUnit.MINUTES, TIMER)
+                            .map(marked -> tokens);
+                })
+                .flatMapSingle(tokens -> finishVersions(tokens, jwt, dryRun, detail, progress)
+                        .map(deleted -> new DeleteResponse(datasetPath, deleted, dryRun)));
+    }
+
+    /**
+     * Delete the versions of the dataset at datasetPath that the retention does not keep.
+     */
+    Single<DeleteResponse> prune(String datasetPath, Retention retention, SignedJwt jwt, Boolean dryRun,
+                                 Detail detail, DeleteProgress progress) {
+        var selected = catalogService.getDatasetVersions(datasetPath, Integer.MAX_VALUE)
+                .collectList()
+                .flatMap(versions -> {
+                    var toDelete = retention.select(versions);
+                    LOG.info("pruning {} of {} versions of {}", toDelete.size(), versions.size(), datasetPath);
+                    return Multi.create(toDelete);
+                });
+        return deleteVersions(datasetPath, selected, jwt, dryRun, detail, progress);
+    }
+
+    /**
+     * Run a dataset delete once one of the datasetConcurrency slots shared by all recursive deletes is free.
+     */
+    Single<DeleteResponse> schedule(Supplier<Single<DeleteResponse>> delete) {
+        return datasets.submit(delete);
+    }
+
+    int getDatasetConcurrency() {
+        return datasetConcurrency;
+    }
+
+    /**
+     * Fail with 403 unless access is allowed for each version.
+     */
+    private static Single<Map<Identifier, DeleteLocationResponse>> checkAccess(
+            Map<Identifier, DeleteLocationResponse> tokens) {
+        var missingAccess = tokens.entrySet().stream()
+                .filter(r -> !r.getValue().getAccessAllowed())
+                .map(Map.Entry::getKey)
+                .map(identifier -> identifier.path + ", " + Instant.ofEpochMilli(identifier.timestamp))
+                .collect(Collectors.toList());
+        if (!missingAccess.isEmpty()) {
+            return Single.error(new HttpException(
+                    "missing delete access for versions: \n" + Strings.join(missingAccess, "\n"),
+                    Http.Status.FORBIDDEN_403
+            ));
+        }
+        return Single.just(tokens);
+    }
+
+    private static URI parentUri(Identifier identifier, DeleteLocationResponse token) {
+        return URI.create(String.join("/",
+                token.getParentUri(),
+                identifier.path,
+                identifier.timestamp.toString()
+        ));
+    }
+
+    /**
+     * Mark the versions and remove them from the catalog.
+     */
+    private Single<List<Identifier>> markVersions(Map<Identifier, DeleteLocationResponse> tokens, SignedJwt jwt,
+                                                  Boolean dryRun) {
+        return Multi.just(tokens.entrySet()).flatMap(e -> {
+            var credentials = dataAccessService.getCredentials(e.getKey().path, e.getKey().timestamp,
+                    jwt.tokenContent(), e.getValue());
+            return storageService.markDelete(parentUri(e.getKey(), e.getValue()), credentials, dryRun)
+                    .flatMapSingle(path -> {
+                        if (!dryRun) {
+                            return catalogService.deleteDatasetVersion(e.getKey().path,
+                                    Instant.ofEpochMilli(e.getKey().timestamp), jwt.tokenContent())
+                                    .map(response -> e.getKey());
+                        } else {
+                            return Single.just(e.getKey());
+                        }
+                    });
+        }).collectList();
+    }
+
+    /**
+     * Delete the marked versions.
+     */
+    private Single<List<DeleteResponse.DatasetVersion>> finishVersions(
+            Map<Identifier, DeleteLocationResponse> tokens, SignedJwt jwt, Boolean dryRun, Detail detail,
+            DeleteProgress progress) {
+        return Multi.just(tokens.entrySet()).flatMap(e -> {
+            var version = Instant.ofEpochMilli(e.getKey().timestamp);
+            var credentials = dataAccessService.getCredentials(e.getKey().path, e.getKey().timestamp,
+                    jwt.tokenContent(), e.getValue());
+            var files = storageService.finishDelete(parentUri(e.getKey(), e.getValue()), credentials, dryRun)
+                    .peek(pathAndSize -> progress.onObject(pathAndSize.getSize()));
+            Single<DeleteResponse.DatasetVersion> deleted;
+            if (detail == Detail.SUMMARY) {
+                // Aggregate while streaming instead of keeping every file.
+                deleted = files.collect(VersionSummary::new, (summary, pathAndSize) ->
+                        summary.add(pathAndSize.getPath(), pathAndSize.getSize())
+                ).map(summary -> summary.toDatasetVersion(version));
+            } else {
+                deleted = files.map(pathAndSize ->
+                        new DeleteResponse.DeletedFile(pathAndSize.getPath().toUri().toString(), pathAndSize.getSize())
+                ).collectList().map(deletedFiles -> new DeleteResponse.DatasetVersion(version, deletedFiles));
+            }
+            return deleted.peek(ignored -> progress.onVersion());
+        }).collectList();
+    }
+}
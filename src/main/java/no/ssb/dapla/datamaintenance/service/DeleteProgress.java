@@ -0,0 +1,75 @@
+package no.ssb.dapla.datamaintenance.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters updated by a running delete. The version count is known once the delete tokens are fetched.
+ * <p>
+ * The phase decides whether the delete can still be cancelled: once marking starts, versions are removed from
+ * the catalog and the delete must run to the end or its objects would be left behind.
+ */
+class DeleteProgress {
+
+    private final AtomicReference<Phase> phase = new AtomicReference<>(Phase.PREPARING);
+    private final AtomicLong versions = new AtomicLong(-1);
+    private final LongAdder versionsProcessed = new LongAdder();
+    private final LongAdder objects = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * @return false if the delete was cancelled before it could start marking.
+     */
+    boolean startMarking() {
+        return phase.compareAndSet(Phase.PREPARING, Phase.MARKING);
+    }
+
+    /**
+     * @return false if marking has already started.
+     */
+    boolean cancelBeforeMarking() {
+        return phase.compareAndSet(Phase.PREPARING, Phase.CANCELLED)
+               || phase.get() == Phase.CANCELLED;
+    }
+
+    void setVersions(long count) {
+        versions.set(count);
+    }
+
+    void onVersion() {
+        versionsProcessed.increment();
+    }
+
+    void onObject(Long size) {
+        objects.increment();
+        if (size != null && size > 0) {
+            bytes.add(size);
+        }
+    }
+
+    /**
+     * @return the number of versions to delete, or -1 when not known yet.
+     */
+    long getVersions() {
+        return versions.get();
+    }
+
+    long getVersionsProcessed() {
+        return versionsProcessed.sum();
+    }
+
+    long getObjects() {
+        return objects.sum();
+    }
+
+    long getBytes() {
+        return bytes.sum();
+    }
+
+    private enum Phase {
+        PREPARING,
+        MARKING,
+        CANCELLED
+    }
+}
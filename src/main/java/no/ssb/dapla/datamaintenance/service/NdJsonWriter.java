@@ -0,0 +1,100 @@
+package no.ssb.dapla.datamaintenance.service;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Writes the lines of a stream to a {@link ChunkedOutput}, requesting them a few at the time.
+ * <p>
+ * Once the response is committed a write returns when the line is handed to the connection, so a slow client
+ * slows down the upstream instead of filling the unbounded queue of the output. When a write fails, typically
+ * because the client went away, the upstream is cancelled and the output closed.
+ */
+class NdJsonWriter implements Flow.Subscriber<String> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NdJsonWriter.class);
+
+    static final int BATCH_SIZE = 16;
+
+    private final ChunkedOutput<String> output;
+    private final CompletableFuture<ChunkedOutput<String>> started = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+    private int outstanding;
+    private boolean done;
+
+    NdJsonWriter(ChunkedOutput<String> output) {
+        this.output = output;
+    }
+
+    /**
+     * Completes with the output on the first line or at the end of the stream, or fails if the stream fails
+     * before anything is written.
+     */
+    CompletionStage<ChunkedOutput<String>> started() {
+        return started;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        outstanding = BATCH_SIZE;
+        subscription.request(BATCH_SIZE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (done) {
+            return;
+        }
+        started.complete(output);
+        try {
+            output.write(line);
+        } catch (IOException ioe) {
+            LOG.debug("could not write streaming response, cancelling", ioe);
+            done = true;
+            subscription.cancel();
+            close();
+            return;
+        }
+        if (--outstanding == 0) {
+            outstanding = BATCH_SIZE;
+            subscription.request(BATCH_SIZE);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (done) {
+            return;
+        }
+        done = true;
+        if (!started.completeExceptionally(throwable)) {
+            LOG.warn("streaming response failed", throwable);
+            close();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        done = true;
+        started.complete(output);
+        close();
+    }
+
+    private void close() {
+        try {
+            output.close();
+        } catch (IOException ioe) {
+            LOG.debug("could not close streaming response", ioe);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package no.ssb.dapla.datamaintenance.service;
+
+import io.helidon.common.http.Http;
+import io.helidon.webserver.HttpException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
+
+/**
+ * Which versions of a dataset a prune keeps.
+ * <p>
+ * A version is kept when it is one of the keepLast newest versions, or when it is not older than olderThan. With
+ * only olderThan set, a dataset whose versions are all older loses every version.
+ */
+final class Retention {
+
+    private final Integer keepLast;
+    private final Instant olderThan;
+
+    Retention(Integer keepLast, Instant olderThan) {
+        this.keepLast = keepLast;
+        this.olderThan = olderThan;
+    }
+
+    /**
+     * @param olderThan an instant, or a duration before now such as P30D.
+     */
+    static Retention parse(Integer keepLast, String olderThan, Instant now) {
+        if (keepLast == null && olderThan == null) {
+            throw new HttpException("keep-last or older-than is required", Http.Status.BAD_REQUEST_400);
+        }
+        if (keepLast != null && keepLast < 1) {
+            throw new HttpException("invalid keep-last " + keepLast + ", must be positive",
+                    Http.Status.BAD_REQUEST_400);
+        }
+        return new Retention(keepLast, olderThan == null ? null : parseInstant(olderThan, now));
+    }
+
+    private static Instant parseInstant(String value, Instant now) {
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException ignored) {
+            // Try a duration.
+        }
+        try {
+            return now.minus(Duration.parse(value));
+        } catch (DateTimeParseException dtpe) {
+            throw new HttpException("invalid older-than " + value + ", must be an instant or a duration",
+                    Http.Status.BAD_REQUEST_400, dtpe);
+        }
+    }
+
+    /**
+     * The versions to delete, newest first.
+     */
+    List<Identifier> select(List<Identifier> versions) {
+        var sorted = new ArrayList<>(versions);
+        sorted.sort(Comparator.comparing((Identifier identifier) -> identifier.timestamp).reversed());
+        var selected = new ArrayList<Identifier>();
+        for (int i = keepLast == null ? 0 : keepLast; i < sorted.size(); i++) {
+            var version = sorted.get(i);
+            if (olderThan == null || Instant.ofEpochMilli(version.timestamp).isBefore(olderThan)) {
+                selected.add(version);
+            }
+        }
+        return selected;
+    }
+}
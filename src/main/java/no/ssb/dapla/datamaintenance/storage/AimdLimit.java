@@ -0,0 +1,58 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Additive increase, multiplicative decrease controller for the limit of a {@link LimitedExecutor}.
+ * <p>
+ * The limit grows by one after a full window of successful calls and is halved when the backend signals
+ * throttling. Only one decrease happens per cool down period so that a burst of throttled calls that were
+ * already in flight does not collapse the limit.
+ */
+class AimdLimit {
+
+    private final LimitedExecutor executor;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long coolDownMillis;
+    private final LongSupplier clock;
+    private final AtomicInteger successes = new AtomicInteger();
+    private long lastDecrease = Long.MIN_VALUE;
+
+    AimdLimit(LimitedExecutor executor, int minLimit, int maxLimit, long coolDownMillis, LongSupplier clock) {
+        this.executor = executor;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.coolDownMillis = coolDownMillis;
+        this.clock = clock;
+    }
+
+    AimdLimit(LimitedExecutor executor, int minLimit, int maxLimit) {
+        this(executor, minLimit, maxLimit, 1000, System::currentTimeMillis);
+    }
+
+    void onSuccess() {
+        var limit = executor.getLimit();
+        if (successes.incrementAndGet() >= limit) {
+            successes.set(0);
+            if (limit < maxLimit) {
+                executor.setLimit(limit + 1);
+            }
+        }
+    }
+
+    synchronized void onThrottled() {
+        var now = clock.getAsLong();
+        if (lastDecrease != Long.MIN_VALUE && now - lastDecrease < coolDownMillis) {
+            return;
+        }
+        lastDecrease = now;
+        successes.set(0);
+        executor.setLimit(Math.max(minLimit, executor.getLimit() / 2));
+    }
+
+    int getLimit() {
+        return executor.getLimit();
+    }
+}
@@ -0,0 +1,26 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter.
+ */
+class Backoff {
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    Backoff(long baseDelayMillis, long maxDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Random delay between 0 and min(maxDelay, baseDelay * 2^(attempt - 1)).
+     */
+    long delayMillis(int attempt) {
+        var shift = Math.min(Math.max(attempt - 1, 0), 30);
+        var ceiling = Math.min(maxDelayMillis, baseDelayMillis << shift);
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
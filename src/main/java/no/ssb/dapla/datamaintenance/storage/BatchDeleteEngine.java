@@ -0,0 +1,189 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import no.ssb.dapla.datamaintenance.ApplicationMetrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deletes groups of objects with a {@link BatchDeleter}, retrying only the entries that failed.
+ * <p>
+ * Entries the backend throttled are not retried here but returned to the caller, which retries them after a
+ * jittered backoff through {@link IoScheduler#retryLater}.
+ */
+class BatchDeleteEngine {
+
+    /**
+     * GCS accepts at most 100 calls per batch request.
+     */
+    static final int MAX_BATCH_SIZE = 100;
+
+    private final int batchSize;
+    private final int maxAttempts;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+
+    BatchDeleteEngine(int batchSize, int maxAttempts) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batch size must be between 1 and " + MAX_BATCH_SIZE);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("max attempts must be positive");
+        }
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Group the elements of an iterator in lists of at most size elements.
+     */
+    static <T> Iterator<List<T>> chunk(Iterator<T> iterator, int size) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public List<T> next() {
+                if (!iterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                var chunk = new ArrayList<T>(size);
+                while (chunk.size() < size && iterator.hasNext()) {
+                    chunk.add(iterator.next());
+                }
+                return chunk;
+            }
+        };
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Delete the objects, at most {@link #getBatchSize()} per request.
+     */
+    Result delete(BatchDeleter deleter, List<PathAndSize> objects) throws IOException {
+        return delete(deleter, objects, 1);
+    }
+
+    /**
+     * Delete the objects, at most {@link #getBatchSize()} per request. Failed entries are retried right away.
+     * Throttled entries are returned in {@link Result#getThrottled()} for the caller to retry after a backoff,
+     * so that no thread waits here.
+     *
+     * @param attempt the attempt these objects are at, 1 unless they were throttled before.
+     * @throws IOException if some objects could still not be deleted after the last attempt.
+     */
+    Result delete(BatchDeleter deleter, List<PathAndSize> objects, int attempt) throws IOException {
+        var deleted = new ArrayList<PathAndSize>(objects.size());
+        var throttled = new ArrayList<PathAndSize>();
+        var nextAttempt = attempt;
+        var chunks = chunk(objects.iterator(), batchSize);
+        while (chunks.hasNext()) {
+            var result = deleteBatch(deleter, chunks.next(), attempt);
+            deleted.addAll(result.deleted);
+            throttled.addAll(result.throttled);
+            nextAttempt = Math.max(nextAttempt, result.nextAttempt);
+        }
+        return new Result(deleted, throttled, nextAttempt);
+    }
+
+    private Result deleteBatch(BatchDeleter deleter, List<PathAndSize> batch, int firstAttempt)
+            throws IOException {
+        var result = new ArrayList<PathAndSize>(batch.size());
+        var pending = batch;
+        for (int attempt = firstAttempt; !pending.isEmpty(); attempt++) {
+            var paths = new ArrayList<Path>(pending.size());
+            for (PathAndSize object : pending) {
+                paths.add(object.getPath());
+            }
+            var outcomes = deleter.delete(paths);
+            requests.increment();
+
+            var failed = new ArrayList<PathAndSize>();
+            var throttled = false;
+            for (int i = 0; i < pending.size(); i++) {
+                switch (outcomes.get(i)) {
+                    case DELETED -> result.add(pending.get(i));
+                    // A previous attempt might have deleted the object without us knowing.
+                    case NOT_FOUND -> {
+                        if (attempt > 1) {
+                            result.add(pending.get(i));
+                        }
+                    }
+                    case FAILED -> failed.add(pending.get(i));
+                    case THROTTLED -> {
+                        failed.add(pending.get(i));
+                        throttled = true;
+                    }
+                }
+            }
+            if (!failed.isEmpty()) {
+                if (attempt >= maxAttempts) {
+                    throw new IOException("could not delete " + failed.size() + " objects after " + attempt
+                                          + " attempts, first was " + failed.get(0).getPath());
+                }
+                retries.add(failed.size());
+                if (throttled) {
+                    // Hand everything that is left back to the caller for a later attempt.
+                    deleted.add(result.size());
+                    return new Result(result, failed, attempt + 1);
+                }
+            }
+            pending = failed;
+        }
+        deleted.add(result.size());
+        return new Result(result, List.of(), firstAttempt);
+    }
+
+    long requests() {
+        return requests.sum();
+    }
+
+    long retries() {
+        return retries.sum();
+    }
+
+    void registerMetrics(String prefix) {
+        ApplicationMetrics.gauge(prefix + ".requests", this::requests);
+        ApplicationMetrics.gauge(prefix + ".retries", this::retries);
+        ApplicationMetrics.gauge(prefix + ".deleted", deleted::sum);
+    }
+
+    static final class Result {
+        private final List<PathAndSize> deleted;
+        private final List<PathAndSize> throttled;
+        private final int nextAttempt;
+
+        private Result(List<PathAndSize> deleted, List<PathAndSize> throttled, int nextAttempt) {
+            this.deleted = deleted;
+            this.throttled = throttled;
+            this.nextAttempt = nextAttempt;
+        }
+
+        List<PathAndSize> getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * Entries left after the backend throttled the request, to retry at {@link #getNextAttempt()}.
+         */
+        List<PathAndSize> getThrottled() {
+            return throttled;
+        }
+
+        int getNextAttempt() {
+            return nextAttempt;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Deletes a group of objects in as few requests as the backend allows.
+ */
+interface BatchDeleter {
+
+    /**
+     * Delete the given paths.
+     *
+     * @return the outcome for each path, in the same order as the paths.
+     * @throws IOException if the whole request failed.
+     */
+    List<Outcome> delete(List<Path> paths) throws IOException;
+
+    enum Outcome {
+        DELETED,
+        NOT_FOUND,
+        FAILED,
+        /**
+         * The backend asked us to slow down. Retried after a backoff.
+         */
+        THROTTLED
+    }
+}
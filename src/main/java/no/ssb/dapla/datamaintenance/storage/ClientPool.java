@@ -0,0 +1,96 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import com.google.auth.Credentials;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.OAuth2Credentials;
+import no.ssb.dapla.datamaintenance.ExpiringCache;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * Pool of storage clients, such as file systems, keyed by bucket and credential identity.
+ * <p>
+ * Entries backed by an access token are evicted when the token expires.
+ */
+class ClientPool<T> {
+
+    private final ExpiringCache<Key, T> cache;
+
+    ClientPool(int maxSize, Clock clock) {
+        this.cache = new ExpiringCache<>(maxSize, clock);
+    }
+
+    ClientPool(int maxSize) {
+        this(maxSize, Clock.systemUTC());
+    }
+
+    static Object identityOf(Credentials credentials) {
+        if (credentials instanceof OAuth2Credentials) {
+            AccessToken token = ((OAuth2Credentials) credentials).getAccessToken();
+            if (token != null) {
+                return token.getTokenValue();
+            }
+        }
+        return credentials;
+    }
+
+    static Instant expirationOf(Credentials credentials) {
+        if (credentials instanceof OAuth2Credentials) {
+            AccessToken token = ((OAuth2Credentials) credentials).getAccessToken();
+            if (token != null && token.getExpirationTime() != null) {
+                return token.getExpirationTime().toInstant();
+            }
+        }
+        return Instant.MAX;
+    }
+
+    T get(String bucket, Credentials credentials, Factory<T> factory) throws IOException {
+        var key = new Key(bucket, identityOf(credentials));
+        var cached = cache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        var client = factory.create();
+        cache.put(key, client, expirationOf(credentials));
+        return client;
+    }
+
+    ExpiringCache<?, ?> cache() {
+        return cache;
+    }
+
+    void registerMetrics(String prefix) {
+        cache.registerMetrics(prefix);
+    }
+
+    interface Factory<T> {
+        T create() throws IOException;
+    }
+
+    private static final class Key {
+        private final String bucket;
+        private final Object identity;
+
+        private Key(String bucket, Object identity) {
+            this.bucket = bucket;
+            this.identity = identity;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (obj == null || obj.getClass() != this.getClass()) return false;
+            var that = (Key) obj;
+            return Objects.equals(this.bucket, that.bucket) &&
+                   Objects.equals(this.identity, that.identity);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bucket, identity);
+        }
+    }
+}
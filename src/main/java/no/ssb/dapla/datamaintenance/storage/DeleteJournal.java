@@ -0,0 +1,178 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only progress journal of a delete, kept on local disk.
+ * <p>
+ * Each batch of deleted objects is appended and flushed to disk. When a delete of the same prefix is started
+ * again after a crash, the journal is replayed: the objects it records as deleted are reported again without
+ * touching the storage, and skipped if the listing still returns them.
+ * <p>
+ * The directory must be on a volume that survives restarts, or there is nothing to replay. Journals of deletes
+ * that were never resumed are removed by {@link #deleteStale}.
+ * <p>
+ * Format, one record per line: {@code D <size> <path>} for a deleted object. Other records are ignored.
+ */
+class DeleteJournal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeleteJournal.class);
+
+    private static final String SUFFIX = ".journal";
+    private static final DeleteJournal DISABLED = new DeleteJournal(null, null, Map.of());
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Map<String, Long> completed;
+
+    private DeleteJournal(Path file, FileChannel channel, Map<String, Long> completed) {
+        this.file = file;
+        this.channel = channel;
+        this.completed = completed;
+    }
+
+    static DeleteJournal disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Open the journal of prefix in directory, replaying it if it exists.
+     */
+    static DeleteJournal open(Path directory, URI prefix) throws IOException {
+        Files.createDirectories(directory);
+        var file = directory.resolve(fileNameOf(prefix));
+        var completed = new HashMap<String, Long>();
+        if (Files.exists(file)) {
+            for (String line : readCompleteLines(file)) {
+                var fields = line.split("\t", 3);
+                if (fields.length == 3 && "D".equals(fields[0])) {
+                    completed.put(fields[2], Long.parseLong(fields[1]));
+                }
+            }
+        }
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        return new DeleteJournal(file, channel, completed);
+    }
+
+    /**
+     * Remove the journals in directory that were not written to for maxAge.
+     *
+     * @return the number of journals removed.
+     */
+    static int deleteStale(Path directory, Duration maxAge, Instant now) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        var deleted = 0;
+        try (var files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (Files.getLastModifiedTime(file).toInstant().plus(maxAge).isBefore(now)
+                    && Files.deleteIfExists(file)) {
+                    LOG.info("removed stale delete journal {}", file);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    static String fileNameOf(URI prefix) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256")
+                    .digest(prefix.toString().getBytes(StandardCharsets.UTF_8));
+            var name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Lines of the file, without a last line that was cut short by a crash.
+     */
+    private static List<String> readCompleteLines(Path file) throws IOException {
+        var content = Files.readString(file, StandardCharsets.UTF_8);
+        var lines = new ArrayList<String>();
+        var start = 0;
+        for (int end = content.indexOf('\n'); end >= 0; end = content.indexOf('\n', start)) {
+            lines.add(content.substring(start, end));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Deleted objects recorded by a previous attempt, path to size.
+     */
+    Map<String, Long> getCompleted() {
+        return completed;
+    }
+
+    boolean isCompleted(Path path) {
+        return completed.containsKey(path.toString());
+    }
+
+    synchronized void recordDeleted(List<PathAndSize> deleted) throws IOException {
+        if (!isEnabled() || deleted.isEmpty()) {
+            return;
+        }
+        var records = new StringBuilder();
+        for (PathAndSize object : deleted) {
+            records.append("D\t").append(object.getSize()).append('\t').append(object.getPath()).append('\n');
+        }
+        append(records.toString());
+        channel.force(false);
+    }
+
+    private void append(String records) throws IOException {
+        var buffer = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Remove the journal once the delete is done.
+     */
+    synchronized void finish() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageBatchResult;
+import com.google.cloud.storage.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link BatchDeleter} that sends all the deletes of a call in one GCS batch request.
+ */
+class GcsBatchDeleter implements BatchDeleter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GcsBatchDeleter.class);
+
+    private final Storage storage;
+
+    GcsBatchDeleter(Storage storage) {
+        this.storage = storage;
+    }
+
+    static BlobId toBlobId(Path path) {
+        var uri = path.toUri();
+        return BlobId.of(uri.getHost(), uri.getPath().substring(1));
+    }
+
+    @Override
+    public List<Outcome> delete(List<Path> paths) throws IOException {
+        var batch = storage.batch();
+        var results = new ArrayList<StorageBatchResult<Boolean>>(paths.size());
+        for (Path path : paths) {
+            results.add(batch.delete(toBlobId(path)));
+        }
+        try {
+            batch.submit();
+        } catch (StorageException se) {
+            throw new IOException("batch delete request failed", se);
+        }
+
+        var outcomes = new ArrayList<Outcome>(paths.size());
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                outcomes.add(Boolean.TRUE.equals(results.get(i).get()) ? Outcome.DELETED : Outcome.NOT_FOUND);
+            } catch (StorageException se) {
+                if (IoScheduler.isThrottled(se)) {
+                    LOG.debug("throttled deleting {}: {}", paths.get(i), se.getMessage());
+                    outcomes.add(Outcome.THROTTLED);
+                } else {
+                    LOG.warn("failed to delete {}: {}", paths.get(i), se.getMessage());
+                    outcomes.add(Outcome.FAILED);
+                }
+            }
+        }
+        return outcomes;
+    }
+}
@@ -0,0 +1,80 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobListOption;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link ObjectLister} that reads the list pages of a GCS prefix.
+ * <p>
+ * The sizes come with the pages, so listing n objects costs n / pageSize requests instead of one request per
+ * object. Pages are fetched as the lister is advanced.
+ */
+class GcsObjectLister implements ObjectLister {
+
+    private final Path start;
+    private final String prefix;
+    private final Iterator<Blob> blobs;
+    private final List<Path> directories = new ArrayList<>();
+    private PathAndSize next;
+
+    GcsObjectLister(Storage storage, Path start, boolean recursive, int pageSize) {
+        var blobId = GcsBatchDeleter.toBlobId(start);
+        this.start = start;
+        this.prefix = blobId.getName().isEmpty() || blobId.getName().endsWith("/")
+                ? blobId.getName()
+                : blobId.getName() + "/";
+        var options = recursive
+                ? new BlobListOption[]{BlobListOption.prefix(prefix), BlobListOption.pageSize(pageSize)}
+                : new BlobListOption[]{BlobListOption.prefix(prefix), BlobListOption.pageSize(pageSize),
+                BlobListOption.currentDirectory()};
+        this.blobs = storage.list(blobId.getBucket(), options).iterateAll().iterator();
+    }
+
+    private Path toPath(String name) {
+        return start.getFileSystem().getPath("/" + name);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && blobs.hasNext()) {
+            var blob = blobs.next();
+            var name = blob.getName();
+            if (blob.isDirectory()) {
+                directories.add(toPath(name.endsWith("/") ? name.substring(0, name.length() - 1) : name));
+            } else if (!name.equals(prefix) && !name.endsWith("/")) {
+                // Names ending with a slash are folder placeholders, not files.
+                next = new PathAndSize(toPath(name), blob.getSize());
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public PathAndSize next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public List<Path> takeDirectories() {
+        var found = List.copyOf(directories);
+        directories.clear();
+        return found;
+    }
+
+    @Override
+    public void close() {
+        // Nothing is held between pages.
+    }
+}
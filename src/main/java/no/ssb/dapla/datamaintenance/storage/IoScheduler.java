@@ -0,0 +1,247 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.contrib.nio.CloudStorageFileSystem;
+import io.helidon.common.reactive.Single;
+import io.helidon.config.Config;
+import no.ssb.dapla.datamaintenance.ApplicationMetrics;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the blocking storage calls of {@link StorageService}.
+ * <p>
+ * Calls go to a bounded elastic thread pool, separate from the common pool, and at most
+ * perBucketConcurrency calls run against the same bucket at the same time. The maxConcurrency and prefetch
+ * settings are used for the flatMap stages of the delete pipeline.
+ * <p>
+ * The per bucket limit adapts to the backend: it is halved when GCS answers 429 or 503 and grows back slowly
+ * while calls succeed, up to maxPerBucketConcurrency. Throttled calls are retried with jittered backoff.
+ */
+class IoScheduler {
+
+    private static final String LOCAL_BUCKET = "file";
+
+    private static final ScheduledExecutorService RETRY_TIMER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                var thread = new Thread(runnable, "storage-io-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final int prefetch;
+    private final int perBucketConcurrency;
+    private final int maxPerBucketConcurrency;
+    private final int maxAttempts;
+    private final Backoff backoff;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+    private volatile String metricsPrefix;
+
+    IoScheduler(Executor executor, int maxConcurrency, int prefetch, int perBucketConcurrency,
+                int maxPerBucketConcurrency, int maxAttempts, Backoff backoff) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("max attempts must be positive");
+        }
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.prefetch = prefetch;
+        this.perBucketConcurrency = perBucketConcurrency;
+        this.maxPerBucketConcurrency = Math.max(perBucketConcurrency, maxPerBucketConcurrency);
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Create a scheduler from the storage.io config node, running on executor when it is not null.
+     */
+    static IoScheduler create(Config config, Executor executor) {
+        var threads = config.get("threads").asInt().orElse(32);
+        return new IoScheduler(
+                executor != null ? executor : boundedElastic(threads),
+                config.get("max-concurrency").asInt().orElse(16),
+                config.get("prefetch").asInt().orElse(32),
+                config.get("per-bucket-concurrency").asInt().orElse(16),
+                config.get("max-per-bucket-concurrency").asInt().orElse(64),
+                config.get("throttling.max-attempts").asInt().orElse(6),
+                new Backoff(
+                        config.get("throttling.base-delay-millis").asLong().orElse(100L),
+                        config.get("throttling.max-delay-millis").asLong().orElse(10_000L))
+        );
+    }
+
+    /**
+     * Whether the throwable or one of its causes is a GCS rate limit (429) or unavailable (503) response.
+     */
+    static boolean isThrottled(Throwable throwable) {
+        for (var cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StorageException) {
+                var code = ((StorageException) cause).getCode();
+                if (code == 429 || code == 503) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Thread pool that grows up to threads and lets idle threads die.
+     * <p>
+     * The queue is not bounded here since the per bucket limits already bound what is submitted to it.
+     */
+    static ThreadPoolExecutor boundedElastic(int threads) {
+        var counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            var thread = new Thread(runnable, "storage-io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        var pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    static String bucketOf(Path path) {
+        var fileSystem = path.getFileSystem();
+        if (fileSystem instanceof CloudStorageFileSystem) {
+            return ((CloudStorageFileSystem) fileSystem).bucket();
+        }
+        return LOCAL_BUCKET;
+    }
+
+    private Bucket bucketFor(Path path) {
+        return buckets.computeIfAbsent(bucketOf(path), name -> {
+            var bucketExecutor = new LimitedExecutor(executor, perBucketConcurrency);
+            var bucket = new Bucket(bucketExecutor, new AimdLimit(bucketExecutor, 1, maxPerBucketConcurrency));
+            var prefix = metricsPrefix;
+            if (prefix != null) {
+                ApplicationMetrics.gauge(prefix + ".bucket." + name + ".limit", () -> (long) bucketExecutor.getLimit());
+            }
+            return bucket;
+        });
+    }
+
+    LimitedExecutor executorFor(Path path) {
+        return bucketFor(path).executor;
+    }
+
+    /**
+     * Report that the backend throttled part of a call, for instance some entries of a batch request, to the
+     * adaptive limit of the bucket of path.
+     */
+    void onThrottled(Path path) {
+        throttled.increment();
+        bucketFor(path).limit.onThrottled();
+    }
+
+    /**
+     * Run a blocking call against the bucket of path. A null result gives an empty {@link Single}.
+     * <p>
+     * Throttled calls are retried up to the configured number of attempts.
+     */
+    <T> Single<T> submit(Path path, Callable<T> call) {
+        return Single.defer(() -> {
+            var future = new CompletableFuture<T>();
+            attempt(bucketFor(path), call, future, 1);
+            return Single.create(future, true);
+        });
+    }
+
+    /**
+     * Run a call against the bucket of path after the backoff of the given retry, for work that the backend
+     * throttled, such as the remaining entries of a batch request. Nothing holds a thread or a slot of the
+     * bucket while waiting.
+     */
+    <T> Single<T> retryLater(Path path, int retry, Callable<T> call) {
+        return Single.defer(() -> {
+            var future = new CompletableFuture<T>();
+            RETRY_TIMER.schedule(() -> attempt(bucketFor(path), call, future, 1),
+                    backoff.delayMillis(retry), TimeUnit.MILLISECONDS);
+            return Single.create(future, true);
+        });
+    }
+
+    private <T> void attempt(Bucket bucket, Callable<T> call, CompletableFuture<T> future, int attempt) {
+        try {
+            bucket.executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    var result = call.call();
+                    bucket.limit.onSuccess();
+                    future.complete(result);
+                } catch (Throwable throwable) {
+                    if (!isThrottled(throwable)) {
+                        future.completeExceptionally(throwable);
+                        return;
+                    }
+                    throttled.increment();
+                    bucket.limit.onThrottled();
+                    if (attempt >= maxAttempts) {
+                        future.completeExceptionally(throwable);
+                        return;
+                    }
+                    RETRY_TIMER.schedule(() -> attempt(bucket, call, future, attempt + 1),
+                            backoff.delayMillis(attempt), TimeUnit.MILLISECONDS);
+                }
+            });
+        } catch (RejectedExecutionException ree) {
+            future.completeExceptionally(ree);
+        }
+    }
+
+    long throttled() {
+        return throttled.sum();
+    }
+
+    int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    int getPrefetch() {
+        return prefetch;
+    }
+
+    void registerMetrics(String prefix) {
+        metricsPrefix = prefix;
+        ApplicationMetrics.gauge(prefix + ".throttled", this::throttled);
+        buckets.forEach((name, bucket) -> ApplicationMetrics.gauge(prefix + ".bucket." + name + ".limit",
+                () -> (long) bucket.executor.getLimit()));
+        if (executor instanceof ThreadPoolExecutor) {
+            var pool = (ThreadPoolExecutor) executor;
+            ApplicationMetrics.gauge(prefix + ".threads.active", () -> (long) pool.getActiveCount());
+            ApplicationMetrics.gauge(prefix + ".queued", () -> (long) pool.getQueue().size());
+        }
+        ApplicationMetrics.gauge(prefix + ".buckets.queued", () -> buckets.values().stream()
+                .mapToLong(bucket -> bucket.executor.getQueued()).sum());
+    }
+
+    private static final class Bucket {
+        private final LimitedExecutor executor;
+        private final AimdLimit limit;
+
+        private Bucket(LimitedExecutor executor, AimdLimit limit) {
+            this.executor = executor;
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs at most limit tasks at the same time on a delegate executor.
+ * <p>
+ * Tasks above the limit are queued without blocking the caller or a thread of the delegate.
+ */
+class LimitedExecutor implements Executor {
+
+    private final Executor delegate;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile int limit;
+
+    LimitedExecutor(Executor delegate, int limit) {
+        this.delegate = delegate;
+        setLimit(limit);
+    }
+
+    void setLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive, was " + limit);
+        }
+        this.limit = limit;
+        drain();
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getActive() {
+        return active.get();
+    }
+
+    int getQueued() {
+        return queue.size();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        queue.add(command);
+        drain();
+    }
+
+    private void drain() {
+        while (!queue.isEmpty()) {
+            var current = active.get();
+            if (current >= limit) {
+                return;
+            }
+            if (!active.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            var task = queue.poll();
+            if (task == null) {
+                active.decrementAndGet();
+                continue;
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        active.decrementAndGet();
+                        drain();
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                active.decrementAndGet();
+                throw ree;
+            }
+        }
+    }
+}
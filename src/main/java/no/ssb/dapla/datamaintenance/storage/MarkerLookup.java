@@ -0,0 +1,15 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+/**
+ * How {@link StorageService} locates the delete markers of a prefix.
+ */
+public enum MarkerLookup {
+    /**
+     * Check for the marker directly under the prefix with a single stat.
+     */
+    DIRECT,
+    /**
+     * Walk the whole prefix and report every directory that contains a marker.
+     */
+    WALK
+}
@@ -0,0 +1,20 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Listing of the files under a directory, with the size the backend gave in the listing.
+ * <p>
+ * A lister that is not recursive only returns the files directly under the start directory and collects the
+ * sub directories it finds, see {@link #takeDirectories()}.
+ */
+interface ObjectLister extends Iterator<PathAndSize>, Closeable {
+
+    /**
+     * Returns and forgets the sub directories found since the last call.
+     */
+    List<Path> takeDirectories();
+}
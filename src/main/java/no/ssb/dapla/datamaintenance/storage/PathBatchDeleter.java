@@ -0,0 +1,32 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fallback {@link BatchDeleter} for file systems without batch support; deletes one path at the time.
+ */
+class PathBatchDeleter implements BatchDeleter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PathBatchDeleter.class);
+
+    @Override
+    public List<Outcome> delete(List<Path> paths) {
+        var outcomes = new ArrayList<Outcome>(paths.size());
+        for (Path path : paths) {
+            try {
+                outcomes.add(Files.deleteIfExists(path) ? Outcome.DELETED : Outcome.NOT_FOUND);
+            } catch (IOException ioe) {
+                LOG.warn("failed to delete {}", path, ioe);
+                outcomes.add(Outcome.FAILED);
+            }
+        }
+        return outcomes;
+    }
+}
@@ -0,0 +1,106 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link ObjectLister} for local file systems; a depth first walk of the directories.
+ * <p>
+ * The attributes of each entry are read once, and the size is taken from them. When the attributes cannot be
+ * read the size is left null. Each read is a request on object stores, use {@link GcsObjectLister} there.
+ */
+class PathObjectLister implements ObjectLister {
+
+    private final Deque<DirectoryStream<Path>> streams = new ArrayDeque<>();
+    private final Deque<Iterator<Path>> iterators = new ArrayDeque<>();
+    private final boolean recursive;
+    private final List<Path> directories = new ArrayList<>();
+    private PathAndSize next;
+
+    PathObjectLister(Path start, boolean recursive) throws IOException {
+        this.recursive = recursive;
+        push(start);
+    }
+
+    private void push(Path directory) throws IOException {
+        var stream = Files.newDirectoryStream(directory);
+        streams.push(stream);
+        iterators.push(stream.iterator());
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !iterators.isEmpty()) {
+                var iterator = iterators.peek();
+                if (!iterator.hasNext()) {
+                    iterators.pop();
+                    streams.pop().close();
+                    continue;
+                }
+                var path = iterator.next();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException ioe) {
+                    next = new PathAndSize(path, null);
+                    continue;
+                }
+                if (attributes.isDirectory() && recursive) {
+                    push(path);
+                } else if (attributes.isDirectory()) {
+                    directories.add(path);
+                } else {
+                    next = new PathAndSize(path, attributes.size());
+                }
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return next != null;
+    }
+
+    @Override
+    public PathAndSize next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public List<Path> takeDirectories() {
+        var found = List.copyOf(directories);
+        directories.clear();
+        return found;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        while (!streams.isEmpty()) {
+            try {
+                streams.pop().close();
+            } catch (IOException ioe) {
+                exception = ioe;
+            }
+        }
+        iterators.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package no.ssb.dapla.datamaintenance.storage;
 
 import com.google.auth.Credentials;
+import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import com.google.cloud.storage.contrib.nio.CloudStorageConfiguration;
 import com.google.cloud.storage.contrib.nio.CloudStorageFileSystem;
 import io.helidon.common.reactive.Multi;
 import io.helidon.common.reactive.Single;
+import io.helidon.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.FileAlreadyExistsException;
@@ -17,8 +23,13 @@ import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
 import java.util.function.BiPredicate;
 
 /**
@@ -27,18 +38,76 @@ import java.util.function.BiPredicate;
 @ApplicationScoped
 public class StorageService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(StorageService.class);
+
     private static final String GCS_SCHEME = "gs";
     private static final String FILE_SCHEME = "file";
     private static final String DELETED_MARKER = ".DELETED";
     private static final String DRYRUN_MARKER = ".DRYRUNDELETE";
+    private static final int DEFAULT_POOL_SIZE = 256;
+    private static final int LISTING_PAGE_SIZE = 1000;
+
+    private final IoScheduler ioScheduler;
+    private final ClientPool<FileSystem> fileSystemPool;
+    private final ClientPool<Storage> storagePool;
+    private final ClientPool<BatchDeleter> batchDeleterPool;
+    private final BatchDeleteEngine batchDeleteEngine;
+    private final Path journalDirectory;
+    private final int listingParallelism;
+    private MarkerLookup markerLookup;
 
-    private Executor executor = null;
+    @Inject
+    public StorageService(Config config) {
+        this(null, config);
+        this.fileSystemPool.registerMetrics("storage.filesystem.pool");
+        this.storagePool.registerMetrics("storage.client.pool");
+        this.batchDeleteEngine.registerMetrics("storage.delete.batch");
+        this.ioScheduler.registerMetrics("storage.io");
+    }
 
     public StorageService(Executor executor) {
-        this.executor = executor;
+        this(executor, Config.empty());
     }
 
     public StorageService() {
+        this(null, Config.empty());
+    }
+
+    /**
+     * @param executor the executor to run blocking storage calls on, or null to create one from the config.
+     */
+    StorageService(Executor executor, Config config) {
+        this.ioScheduler = IoScheduler.create(config.get("storage.io"), executor);
+        var poolSize = config.get("storage.filesystem-pool.max-size").asInt().orElse(DEFAULT_POOL_SIZE);
+        this.fileSystemPool = new ClientPool<>(poolSize);
+        this.storagePool = new ClientPool<>(poolSize);
+        this.batchDeleterPool = new ClientPool<>(poolSize);
+        this.batchDeleteEngine = new BatchDeleteEngine(
+                config.get("storage.delete.batch-size").asInt().orElse(BatchDeleteEngine.MAX_BATCH_SIZE),
+                config.get("storage.delete.max-attempts").asInt().orElse(3)
+        );
+        this.listingParallelism = config.get("storage.listing.parallelism").asInt().orElse(4);
+        this.journalDirectory = config.get("storage.journal.directory").asString()
+                .map(Path::of)
+                .orElse(null);
+        if (journalDirectory != null) {
+            deleteStaleJournals(Duration.ofHours(config.get("storage.journal.max-age-hours").asLong().orElse(168L)));
+        }
+        this.markerLookup = config.get("storage.marker-lookup").asString()
+                .map(value -> MarkerLookup.valueOf(value.toUpperCase()))
+                .orElse(MarkerLookup.DIRECT);
+    }
+
+    /**
+     * Remove the journals of deletes that were not resumed within maxAge, their markers are still there and a
+     * new delete lists the prefix again.
+     */
+    private void deleteStaleJournals(Duration maxAge) {
+        try {
+            DeleteJournal.deleteStale(journalDirectory, maxAge, Instant.now());
+        } catch (IOException ioe) {
+            LOG.warn("could not remove stale delete journals in {}", journalDirectory, ioe);
+        }
     }
 
     static URI removeSchemeAndHost(URI path) {
@@ -51,7 +120,6 @@ public class StorageService {
         }
     }
 
-    // We might need to cache the file system by bucket with token expiration as eviction?
     StorageOptions getStorageOptions(Credentials credentials) throws IOException {
         return StorageOptions.newBuilder()
                 .setCredentials(credentials)
@@ -62,14 +130,14 @@ public class StorageService {
         var scheme = prefix.getScheme();
         if (GCS_SCHEME.equalsIgnoreCase(scheme)) {
             var bucketName = prefix.getHost();
-            return CloudStorageFileSystem.forBucket(
+            return fileSystemPool.get(bucketName, credentials, () -> CloudStorageFileSystem.forBucket(
                     bucketName,
                     CloudStorageConfiguration.builder()
                             .autoDetectRequesterPays(false)
                             .userProject(null)
                             .build(),
                     getStorageOptions(credentials)
-            );
+            ));
         } else if (FILE_SCHEME.equalsIgnoreCase(scheme)) {
             return FileSystems.getDefault();
         } else {
@@ -77,8 +145,58 @@ public class StorageService {
         }
     }
 
-    Executor getExecutor() {
-        return executor != null ? executor : ForkJoinPool.commonPool();
+    /**
+     * Returns a deleter that removes objects in as few requests as the backend allows.
+     */
+    BatchDeleter getBatchDeleter(URI prefix, Credentials credentials) throws IOException {
+        var scheme = prefix.getScheme();
+        if (GCS_SCHEME.equalsIgnoreCase(scheme)) {
+            return batchDeleterPool.get(prefix.getHost(), credentials, () ->
+                    new GcsBatchDeleter(getStorageOptions(credentials).getService()));
+        } else {
+            return new PathBatchDeleter();
+        }
+    }
+
+    /**
+     * Returns the client that lists the objects under prefix, or null when the prefix is listed through its
+     * file system.
+     */
+    Storage getListingStorage(URI prefix, Credentials credentials) throws IOException {
+        if (GCS_SCHEME.equalsIgnoreCase(prefix.getScheme())) {
+            return storagePool.get(prefix.getHost(), credentials, () -> getStorageOptions(credentials).getService());
+        }
+        return null;
+    }
+
+    /**
+     * GCS prefixes are listed page by page with the sizes from the pages. Walking them with NIO would read the
+     * attributes of each object in its own request, so that is only done on local file systems.
+     */
+    private static ObjectLister newLister(Storage storage, Path start, boolean recursive) throws IOException {
+        if (storage != null) {
+            return new GcsObjectLister(storage, start, recursive, LISTING_PAGE_SIZE);
+        }
+        return new PathObjectLister(start, recursive);
+    }
+
+    ClientPool<FileSystem> getFileSystemPool() {
+        return fileSystemPool;
+    }
+
+    BatchDeleteEngine getBatchDeleteEngine() {
+        return batchDeleteEngine;
+    }
+
+    void setMarkerLookup(MarkerLookup markerLookup) {
+        this.markerLookup = markerLookup;
+    }
+
+    /**
+     * Run a blocking storage call on the I/O scheduler. A null result gives an empty {@link Single}.
+     */
+    <T> Single<T> ioAsync(Path path, Callable<T> call) {
+        return ioScheduler.submit(path, call);
     }
 
     /**
@@ -97,17 +215,19 @@ public class StorageService {
                 var fileSystem = setupFileSystem(prefix, credentials);
                 var file = removeSchemeAndHost(prefix);
                 var path = fileSystem.getPath(file.getPath());
-                try {
-                    // TODO: Append info about who tried to delete.
-                    Path markerPath = path.resolve(markerName);
-                    if (!Files.exists(markerPath)) {
-                        Files.createFile(markerPath);
+                // TODO: Append info about who tried to delete.
+                Path markerPath = path.resolve(markerName);
+                return ioAsync(markerPath, () -> {
+                    try {
+                        if (!Files.exists(markerPath)) {
+                            Files.createFile(markerPath);
+                        }
+                        return markerPath;
+                    } catch (FileAlreadyExistsException faee) {
+                        // TODO: Log
+                        return null;
                     }
-                    return Single.just(markerPath);
-                } catch (FileAlreadyExistsException faee) {
-                    // TODO: Log
-                    return Single.empty();
-                }
+                });
             } catch (IOException ioe) {
                 return Single.error(ioe);
             }
@@ -115,19 +235,28 @@ public class StorageService {
     }
 
     Multi<Path> findMarked(URI prefix, Credentials credentials, String markerName) {
+        return findMarked(prefix, credentials, markerName, markerLookup);
+    }
+
+    /**
+     * Find the directories marked with the given marker.
+     * <p>
+     * {@link MarkerLookup#DIRECT} only checks the prefix itself, where {@link #markDelete} puts the marker, and
+     * thus costs one stat regardless of the number of files under the prefix. {@link MarkerLookup#WALK} lists
+     * everything under the prefix and should only be used to recover markers placed elsewhere.
+     */
+    Multi<Path> findMarked(URI prefix, Credentials credentials, String markerName, MarkerLookup lookup) {
         return Multi.defer(() -> {
             try {
                 var fileSystem = setupFileSystem(prefix, credentials);
                 var path = fileSystem.getPath(removeSchemeAndHost(prefix).getPath());
 
+                if (lookup == MarkerLookup.DIRECT) {
+                    return existsAsync(path.resolve(markerName)).flatMap(exists ->
+                            exists ? Multi.just(path) : Multi.<Path>empty());
+                }
                 return findAsync(path, Integer.MAX_VALUE, (directory, attr) -> directory.endsWith(markerName))
                         .map(Path::getParent);
-                // TODO: check if a recursive implementation with Files.find() and a folder
-                //  filter would improve performances. I suspect that GCS under the hood need
-                //  to go through the files sequentially anyways.
-//                return Multi.create(Files.list(path)).filter(directory ->
-//                                directory.endsWith(markerName)
-//                        ).map(Path::getParent);
             } catch (IOException ioe) {
                 return Single.error(ioe);
             }
@@ -142,51 +271,207 @@ public class StorageService {
      */
     public Multi<PathAndSize> finishDelete(URI prefix, Credentials credentials, Boolean dryRun) {
         Multi<Path> markedPaths = findMarked(prefix, credentials, dryRun ? DRYRUN_MARKER : DELETED_MARKER);
-        if (dryRun) {
-            return markedPaths.flatMap(path -> findAsync(path, Integer.MAX_VALUE, (foundPath, attr) -> !attr.isDirectory()))
-                    .flatMap(path -> sizeAsync(path).map(size -> new PathAndSize(path, size)))
-                    .flatMap(pathAndSize -> {
-                        // delete the dry run marker.
-                        if (pathAndSize.getPath().endsWith(DRYRUN_MARKER)) {
-                            return deleteIfExistsAsync(pathAndSize.getPath()).map(path -> pathAndSize);
-                        } else {
-                            return Single.just(pathAndSize);
-                        }
-                    });
-        } else {
-            return markedPaths.flatMap(pathToDelete -> deleteAllUnder(pathToDelete));
-        }
-
+        var maxConcurrency = ioScheduler.getMaxConcurrency();
+        var prefetch = ioScheduler.getPrefetch();
+        return Multi.defer(() -> {
+            try {
+                var storage = getListingStorage(prefix, credentials);
+                if (dryRun) {
+                    return markedPaths.flatMap(path -> listAsync(storage, path), maxConcurrency, false, prefetch)
+                            .flatMap(this::withSize, maxConcurrency, false, prefetch)
+                            .flatMap(pathAndSize -> {
+                                // delete the dry run marker.
+                                if (pathAndSize.getPath().endsWith(DRYRUN_MARKER)) {
+                                    return deleteIfExistsAsync(pathAndSize.getPath()).map(path -> pathAndSize);
+                                } else {
+                                    return Single.just(pathAndSize);
+                                }
+                            }, maxConcurrency, false, prefetch);
+                }
+                var deleter = getBatchDeleter(prefix, credentials);
+                return markedPaths.flatMap(pathToDelete -> deleteAllUnder(storage, pathToDelete, deleter),
+                        maxConcurrency, false, prefetch);
+            } catch (IOException ioe) {
+                return Multi.error(ioe);
+            }
+        });
     }
 
     /**
      * Like {@link Files#size(Path)} but async.
      */
     public Single<Long> sizeAsync(Path path) {
-        return Single.defer(() -> {
-            try {
-                return Single.just(Files.size(path));
-            } catch (IOException e) {
-                return Single.error(e);
-            }
-        }).observeOn(getExecutor());
+        return ioAsync(path, () -> Files.size(path));
     }
 
     /**
-     * Delete the files marked for deletion
+     * Fill in the size of objects whose listing did not include it.
+     */
+    private Single<PathAndSize> withSize(PathAndSize pathAndSize) {
+        if (pathAndSize.getSize() != null) {
+            return Single.just(pathAndSize);
+        }
+        var path = pathAndSize.getPath();
+        return sizeAsync(path).map(size -> new PathAndSize(path, size));
+    }
+
+    /**
+     * Delete the files marked for deletion, one batch request at the time.
+     * <p>
+     * Progress is written to a {@link DeleteJournal} when a journal directory is configured. The marker is
+     * deleted last so that an interrupted delete is found again by {@link #findMarked} and resumes from the
+     * journal.
      *
      * @param prefix the prefix
      * @return the list of files that are deleted.
      */
-    private Multi<PathAndSize> deleteAllUnder(Path prefix) {
-        return findAsync(prefix, Integer.MAX_VALUE, (foundPath, attr) -> !attr.isDirectory())
-                .flatMap(pathToDelete ->
-                        Single.create(
-                                sizeAsync(pathToDelete).onErrorResume(throwable -> -1L)
-                                        .thenCombine(deleteIfExistsAsync(pathToDelete), (size, path) ->
-                                                new PathAndSize(path, size)
-                                        ))
-                );
+    private Multi<PathAndSize> deleteAllUnder(Storage storage, Path prefix, BatchDeleter deleter) {
+        var marker = prefix.resolve(DELETED_MARKER);
+        return openJournalAsync(prefix).flatMap(journal -> {
+            var replayed = Multi.create(journal.getCompleted().entrySet())
+                    .map(entry -> new PathAndSize(prefix.getFileSystem().getPath(entry.getKey()), entry.getValue()));
+
+            var deleted = listShardedAsync(storage, prefix, batchDeleteEngine.getBatchSize())
+                    .flatMap(batch -> ioAsync(prefix, () -> {
+                        var objects = new ArrayList<PathAndSize>(batch.size());
+                        for (PathAndSize object : batch) {
+                            if (object.getPath().equals(marker) || journal.isCompleted(object.getPath())) {
+                                continue;
+                            }
+                            objects.add(object.getSize() != null ? object :
+                                    new PathAndSize(object.getPath(), sizeOrDefault(object.getPath(), -1L)));
+                        }
+                        return objects;
+                    }).flatMapSingle(objects -> deleteBatchAsync(prefix, deleter, journal, objects, 1)),
+                            ioScheduler.getMaxConcurrency(), false, ioScheduler.getPrefetch())
+                    .flatMapIterable(objects -> objects);
+
+            var deletedMarker = ioAsync(marker, () -> {
+                var size = sizeOrDefault(marker, -1L);
+                var existed = Files.deleteIfExists(marker);
+                journal.finish();
+                return existed ? new PathAndSize(marker, size) : null;
+            });
+
+            return Multi.concat(Multi.concat(replayed, deleted), deletedMarker)
+                    .onError(throwable -> closeQuietly(journal))
+                    .onCancel(() -> closeQuietly(journal));
+        });
+    }
+
+    /**
+     * Delete a batch of objects on the I/O scheduler. Entries the backend throttled are handed back to the
+     * scheduler, which lowers the limit of the bucket and retries them after a backoff.
+     */
+    private Single<List<PathAndSize>> deleteBatchAsync(Path prefix, BatchDeleter deleter, DeleteJournal journal,
+                                                       List<PathAndSize> objects, int attempt) {
+        Callable<BatchDeleteEngine.Result> call = () -> {
+            var result = batchDeleteEngine.delete(deleter, objects, attempt);
+            journal.recordDeleted(result.getDeleted());
+            return result;
+        };
+        var results = attempt == 1 ? ioAsync(prefix, call) : ioScheduler.retryLater(prefix, attempt - 1, call);
+        return results.flatMapSingle(result -> {
+            if (result.getThrottled().isEmpty()) {
+                return Single.just(result.getDeleted());
+            }
+            ioScheduler.onThrottled(prefix);
+            return deleteBatchAsync(prefix, deleter, journal, result.getThrottled(), result.getNextAttempt())
+                    .map(retried -> {
+                        var all = new ArrayList<>(result.getDeleted());
+                        all.addAll(retried);
+                        return all;
+                    });
+        });
+    }
+
+    private Single<DeleteJournal> openJournalAsync(Path prefix) {
+        if (journalDirectory == null) {
+            return Single.just(DeleteJournal.disabled());
+        }
+        return ioAsync(prefix, () -> DeleteJournal.open(journalDirectory, prefix.toUri()));
+    }
+
+    private static Long sizeOrDefault(Path path, Long defaultSize) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return defaultSize;
+        }
+    }
+
+    /**
+     * List the files under start with their size in one pass.
+     */
+    private Multi<PathAndSize> listAsync(Storage storage, Path start) {
+        return listShardedAsync(storage, start, LISTING_PAGE_SIZE).flatMapIterable(page -> page);
+    }
+
+    /**
+     * Like {@link #listAsync} but groups the files in lists of at most batchSize elements.
+     * <p>
+     * The lister is advanced one batch at the time on the I/O scheduler.
+     */
+    private Multi<List<PathAndSize>> listBatchesAsync(Storage storage, Path start, int batchSize) {
+        return ioAsync(start, () -> newLister(storage, start, true)).flatMap(lister ->
+                Multi.range(0, Integer.MAX_VALUE)
+                        .flatMap(i -> ioAsync(start, () -> nextBatch(lister, batchSize)), 1, false, 1)
+                        .takeWhile(batch -> !batch.isEmpty())
+                        .onTerminate(() -> closeQuietly(lister))
+                        .onCancel(() -> closeQuietly(lister))
+        );
+    }
+
+    /**
+     * Like {@link #listBatchesAsync} but lists the sub directories of start in parallel.
+     * <p>
+     * The first level of start is read with a lister that does not descend. The files it finds are emitted
+     * as they come and each sub directory, typically a partition, becomes a shard listed on its own. At most
+     * {@code storage.listing.parallelism} shards are listed at the same time and their batches are merged
+     * into one stream.
+     */
+    private Multi<List<PathAndSize>> listShardedAsync(Storage storage, Path start, int batchSize) {
+        if (listingParallelism <= 1) {
+            return listBatchesAsync(storage, start, batchSize);
+        }
+        return ioAsync(start, () -> newLister(storage, start, false)).flatMap(lister ->
+                Multi.range(0, Integer.MAX_VALUE)
+                        .flatMap(i -> ioAsync(start, () -> nextShards(storage, lister, batchSize)), 1, false, 1)
+                        .takeWhile(shards -> !shards.isEmpty())
+                        .onTerminate(() -> closeQuietly(lister))
+                        .onCancel(() -> closeQuietly(lister))
+                        .flatMapIterable(shards -> shards)
+                        .flatMap(shard -> shard, listingParallelism, false, 1)
+        );
+    }
+
+    private List<Flow.Publisher<List<PathAndSize>>> nextShards(Storage storage, ObjectLister lister,
+                                                               int batchSize) {
+        var files = nextBatch(lister, batchSize);
+        var shards = new ArrayList<Flow.Publisher<List<PathAndSize>>>();
+        if (!files.isEmpty()) {
+            shards.add(Single.just(files));
+        }
+        for (Path directory : lister.takeDirectories()) {
+            shards.add(listBatchesAsync(storage, directory, batchSize));
+        }
+        return shards;
+    }
+
+    private static List<PathAndSize> nextBatch(ObjectLister lister, int batchSize) {
+        var batch = new ArrayList<PathAndSize>(batchSize);
+        while (batch.size() < batchSize && lister.hasNext()) {
+            batch.add(lister.next());
+        }
+        return batch;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ioe) {
+            // Ignore, nothing more is read or written.
+        }
     }
 
     /**
@@ -194,29 +479,20 @@ public class StorageService {
      */
     private Multi<Path> findAsync(Path start, int maxDepth, BiPredicate<Path, BasicFileAttributes> matcher,
                                   FileVisitOption... options) {
-        return Single.defer(() -> {
-            try {
-                return Single.just(Files.find(start, maxDepth, matcher, options));
-            } catch (IOException ioe) {
-                return Single.error(ioe);
-            }
-        }).observeOn(getExecutor()).flatMap(Multi::create);
+        return ioAsync(start, () -> Files.find(start, maxDepth, matcher, options)).flatMap(Multi::create);
+    }
+
+    /**
+     * Like {@link Files#exists(Path, java.nio.file.LinkOption...)} but async.
+     */
+    private Single<Boolean> existsAsync(Path path) {
+        return ioAsync(path, () -> Files.exists(path));
     }
 
     /**
      * Like {@link Files#deleteIfExists(Path)} but async.
      */
     private Single<Path> deleteIfExistsAsync(Path path) {
-        return Single.defer(() -> {
-            try {
-                if (Files.deleteIfExists(path)) {
-                    return Single.just(path);
-                } else {
-                    return Single.empty();
-                }
-            } catch (IOException ioe) {
-                return Single.error(ioe);
-            }
-        }).observeOn(getExecutor());
+        return ioAsync(path, () -> Files.deleteIfExists(path) ? path : null);
     }
 }
@@ -0,0 +1,132 @@
+package no.ssb.dapla.datamaintenance;
+
+import io.helidon.common.http.Http;
+import io.helidon.webserver.HttpException;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.NotFoundException;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResilienceTest {
+
+    private static Resilience resilience(long timeoutMillis, boolean hedging, CircuitBreaker breaker) {
+        return new Resilience("test", timeoutMillis, hedging, 95, 1, 10, 1.0, breaker);
+    }
+
+    private static CircuitBreaker breaker() {
+        return new CircuitBreaker(4, 0.5, 60_000, System::currentTimeMillis);
+    }
+
+    @Test
+    void testSlowCallIsHedged() throws ExecutionException, InterruptedException, TimeoutException {
+        var resilience = resilience(5000, true, breaker());
+        var attempts = new AtomicInteger();
+        var slow = new CompletableFuture<String>();
+
+        var result = resilience.idempotent(() -> attempts.incrementAndGet() == 1 ? slow :
+                CompletableFuture.completedFuture("hedge")).toCompletableFuture();
+
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("hedge");
+        assertThat(attempts.get()).isEqualTo(2);
+        assertThat(resilience.hedgeWins()).isEqualTo(1);
+        assertThat(slow).isCancelled();
+    }
+
+    @Test
+    void testNonIdempotentCallIsNotHedged() throws ExecutionException, InterruptedException {
+        var resilience = resilience(5000, true, breaker());
+        var attempts = new AtomicInteger();
+
+        var result = resilience.call(() -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.supplyAsync(() -> "value",
+                    CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+        }).toCompletableFuture();
+
+        assertThat(result.get()).isEqualTo("value");
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+
+    @Test
+    void testTimeout() {
+        var resilience = resilience(10, false, breaker());
+
+        assertThatThrownBy(() -> resilience.call(CompletableFuture::new).toCompletableFuture().get())
+                .getCause()
+                .isInstanceOf(HttpException.class)
+                .extracting(throwable -> ((HttpException) throwable).status())
+                .isEqualTo(Http.Status.GATEWAY_TIMEOUT_504);
+        assertThat(resilience.timeouts()).isEqualTo(1);
+    }
+
+    @Test
+    void testBreakerOpensOnFailuresOnly() {
+        var breaker = breaker();
+        var resilience = resilience(5000, false, breaker);
+
+        for (int i = 0; i < 4; i++) {
+            resilience.call(() -> CompletableFuture.failedFuture(new NotFoundException()));
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        for (int i = 0; i < 2; i++) {
+            resilience.call(() -> CompletableFuture.failedFuture(new IOException("connection refused")));
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        var calls = new AtomicInteger();
+        assertThatThrownBy(() -> resilience.call(() -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("value");
+        }).toCompletableFuture().get())
+                .getCause()
+                .isInstanceOf(HttpException.class)
+                .extracting(throwable -> ((HttpException) throwable).status())
+                .isEqualTo(Http.Status.SERVICE_UNAVAILABLE_503);
+        assertThat(calls.get()).isZero();
+    }
+
+    @Test
+    void testBreakerClosesAfterSuccessfulTrial() {
+        var now = new AtomicInteger();
+        var breaker = new CircuitBreaker(2, 0.5, 100, now::get);
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        now.addAndGet(100);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void testCancelledTrialIsReleased() {
+        var now = new AtomicInteger();
+        var breaker = new CircuitBreaker(2, 0.5, 100, now::get);
+        breaker.onFailure();
+        breaker.onFailure();
+        now.addAndGet(100);
+        var resilience = resilience(5000, false, breaker);
+        var upstream = new CompletableFuture<String>();
+
+        var trial = resilience.call(() -> upstream).toCompletableFuture();
+        assertThat(breaker.tryAcquire()).isFalse();
+        trial.cancel(true);
+
+        assertThat(upstream).isCancelled();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+}
@@ -0,0 +1,167 @@
+package no.ssb.dapla.datamaintenance.access;
+
+import io.helidon.config.Config;
+import no.ssb.dapla.data.access.protobuf.DeleteLocationResponse;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataAccessServiceTest {
+
+    private MockWebServer server;
+    private DataAccessService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        var client = RestClientBuilder.newBuilder()
+                .baseUri(server.url("/").uri())
+                .build(DataAccessClient.class);
+        service = new DataAccessService(client, Config.empty(), Clock.systemUTC());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private void enqueueToken(String token, boolean allowed, Instant expiration) throws IOException {
+        enqueueToken(token, allowed, expiration, "gs://bucket");
+    }
+
+    private void enqueueToken(String token, boolean allowed, Instant expiration, String parentUri)
+            throws IOException {
+        var response = DeleteLocationResponse.newBuilder()
+                .setAccessAllowed(allowed)
+                .setAccessToken(token)
+                .setExpirationTime(expiration.toEpochMilli())
+                .setParentUri(parentUri);
+        server.enqueue(new MockResponse()
+                .setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON)
+                .setBody(ProtobufJsonProvider.writeAsString(response)));
+    }
+
+    @Test
+    void testTokensAreCachedUntilCloseToExpiry() throws IOException {
+        enqueueToken("first", true, Instant.now().plus(Duration.ofHours(1)));
+        enqueueToken("second", true, Instant.now().plus(Duration.ofSeconds(30)));
+        enqueueToken("third", true, Instant.now().plus(Duration.ofHours(1)));
+
+        assertThat(service.getDeleteToken("/foo", 1L, "user").await().getAccessToken()).isEqualTo("first");
+        assertThat(service.getDeleteToken("/foo", 1L, "Bearer user").await().getAccessToken()).isEqualTo("first");
+        assertThat(server.getRequestCount()).isEqualTo(1);
+
+        // Expires within the refresh margin, so it is not reused.
+        assertThat(service.getDeleteToken("/foo", 2L, "user").await().getAccessToken()).isEqualTo("second");
+        assertThat(service.getDeleteToken("/foo", 2L, "user").await().getAccessToken()).isEqualTo("third");
+        assertThat(server.getRequestCount()).isEqualTo(3);
+    }
+
+    @Test
+    void testVersionsGetTheirOwnToken() throws Exception {
+        var expiration = Instant.now().plus(Duration.ofHours(1)).toEpochMilli();
+        var allowed = DeleteLocationResponse.newBuilder()
+                .setAccessAllowed(true)
+                .setAccessToken("allowed")
+                .setExpirationTime(expiration)
+                .setParentUri("gs://bucket-1");
+        var denied = DeleteLocationResponse.newBuilder()
+                .setAccessAllowed(false)
+                .setExpirationTime(expiration)
+                .setParentUri("gs://bucket-2");
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                var body = request.getBody().readUtf8();
+                try {
+                    return new MockResponse()
+                            .setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON)
+                            .setBody(ProtobufJsonProvider.writeAsString(body.contains("2") ? denied : allowed))
+                            .setBodyDelay(100, TimeUnit.MILLISECONDS);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+        });
+
+        var first = service.getDeleteToken("/foo", 1L, "user").toStage().toCompletableFuture();
+        var second = service.getDeleteToken("/foo", 2L, "user").toStage().toCompletableFuture();
+
+        assertThat(first.get().getParentUri()).isEqualTo("gs://bucket-1");
+        assertThat(first.get().getAccessAllowed()).isTrue();
+        assertThat(second.get().getParentUri()).isEqualTo("gs://bucket-2");
+        assertThat(second.get().getAccessAllowed()).isFalse();
+
+        assertThat(service.getDeleteToken("/foo", 1L, "user").await().getParentUri()).isEqualTo("gs://bucket-1");
+        assertThat(service.getDeleteToken("/foo", 2L, "user").await().getAccessAllowed()).isFalse();
+        assertThat(server.getRequestCount()).isEqualTo(3);
+    }
+
+    @Test
+    void testDeniedAccessIsNotCached() throws IOException {
+        enqueueToken("", false, Instant.now().plus(Duration.ofHours(1)));
+        enqueueToken("token", true, Instant.now().plus(Duration.ofHours(1)));
+
+        assertThat(service.getDeleteToken("/foo", 1L, "user").await().getAccessAllowed()).isFalse();
+        assertThat(service.getDeleteToken("/foo", 1L, "user").await().getAccessAllowed()).isTrue();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        var deadline = Instant.now().plusSeconds(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(Instant.now()).isBefore(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void testCredentialsFetchANewTokenInTheBackground() throws Exception {
+        enqueueToken("first", true, Instant.now().plus(Duration.ofMinutes(1)));
+        enqueueToken("refreshed", true, Instant.now().plus(Duration.ofHours(1)));
+
+        var response = service.getDeleteToken("/foo", 1L, "user").await();
+        var credentials = (DeleteTokenCredentials) service.getCredentials("/foo", 1L, "user", response);
+        assertThat(credentials.getAccessToken().getTokenValue()).isEqualTo("first");
+
+        // Within the refresh margin: the refresh starts, but the current token is returned right away.
+        credentials.refresh();
+        assertThat(credentials.getAccessToken().getTokenValue()).isEqualTo("first");
+
+        awaitUntil(() -> credentials.getLatest().getAccessToken().equals("refreshed"));
+        credentials.refresh();
+        assertThat(credentials.getAccessToken().getTokenValue()).isEqualTo("refreshed");
+        assertThat(server.getRequestCount()).isEqualTo(2);
+    }
+
+    @Test
+    void testRefreshForAnotherParentUriIsRefused() throws Exception {
+        enqueueToken("first", true, Instant.now().plus(Duration.ofMinutes(1)));
+        enqueueToken("moved", true, Instant.now().plus(Duration.ofHours(1)), "gs://other");
+
+        var response = service.getDeleteToken("/foo", 1L, "user").await();
+        var credentials = (DeleteTokenCredentials) service.getCredentials("/foo", 1L, "user", response);
+        credentials.refresh();
+
+        awaitUntil(() -> credentials.getLastFailure() != null);
+        assertThat(credentials.getLastFailure()).hasMessageContaining("gs://other");
+        assertThat(credentials.getLatest().getAccessToken()).isEqualTo("first");
+    }
+}
@@ -1,5 +1,7 @@
 package no.ssb.dapla.datamaintenance.catalog;
 
+import io.helidon.config.Config;
+import io.helidon.config.ConfigSources;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import org.eclipse.microprofile.rest.client.RestClientBuilder;
@@ -9,8 +11,11 @@ import org.junit.jupiter.api.Test;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import java.io.IOException;
+import java.time.Clock;
 import java.time.Instant;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -100,6 +105,113 @@ class CatalogClientTest {
         assertThat(request.getPath()).isEqualTo("/dataset?prefix=%2Fa%2Fprefix&limit=100&version=1970-01-01T00%3A20%3A34Z");
     }
 
+    @Test
+    void testFollowCursors() throws InterruptedException {
+        server.enqueue(new MockResponse()
+                .setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON)
+                .setResponseCode(200)
+                .setBody("""
+                        {
+                            "entries": [
+                                { "path": "felles", "timestamp": "1610617128787" },
+                                { "path": "kilde", "timestamp": "1604071017000" }
+                            ],
+                            "cursor": "kilde"
+                        }
+                        """)
+        );
+        server.enqueue(new MockResponse()
+                .setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON)
+                .setResponseCode(200)
+                .setBody("""
+                        {
+                            "entries": [
+                                { "path": "produkt", "timestamp": "1608128434194" }
+                            ]
+                        }
+                        """)
+        );
+
+        var folders = new CatalogService(client).getAllFolders("a/prefix", Instant.ofEpochSecond(1234), 2)
+                .collectList().await();
+        assertThat(folders).containsExactly(
+                CatalogClient.Identifier.of("felles", 1610617128787L),
+                CatalogClient.Identifier.of("kilde", 1604071017000L),
+                CatalogClient.Identifier.of("produkt", 1608128434194L)
+        );
+
+        assertThat(server.takeRequest().getRequestUrl().queryParameter("cursor")).isNull();
+        assertThat(server.takeRequest().getRequestUrl().queryParameter("cursor")).isEqualTo("kilde");
+    }
+
+    @Test
+    void testCachedListingIsInvalidatedByDelete() throws InterruptedException {
+        var folders = """
+                {
+                    "entries": [
+                        { "path": "felles/ds", "timestamp": "1610617128787" }
+                    ]
+                }
+                """;
+        server.enqueue(new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON).setBody(folders));
+        server.enqueue(new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON).setBody(folders));
+        server.enqueue(new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON).setBody("{}"));
+        server.enqueue(new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON).setBody(folders));
+
+        var config = Config.builder()
+                .addSource(ConfigSources.create(Map.of("cache.enabled", "true", "cache.ttl-millis", "60000")))
+                .build();
+        var service = new CatalogService(client, config, Clock.systemUTC());
+
+        var now = Instant.now();
+        assertThat(service.getFolders("felles", now, 10).collectList().await()).hasSize(1);
+        assertThat(service.getFolders("/felles", now, 10).collectList().await()).hasSize(1);
+        assertThat(service.getFolders("felles", Instant.now(), 10).collectList().await()).hasSize(1);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(service.getCache().hits()).isEqualTo(1);
+
+        service.deleteDatasetVersion("/felles/ds/sub", now, "token").await();
+        assertThat(server.getRequestCount()).isEqualTo(3);
+
+        assertThat(service.getFolders("felles", now, 10).collectList().await()).hasSize(1);
+        assertThat(server.getRequestCount()).isEqualTo(4);
+    }
+
+    @Test
+    void testListingInFlightDuringInvalidationIsNotCached() throws Exception {
+        var folders = """
+                {
+                    "entries": [
+                        { "path": "felles/ds", "timestamp": "1610617128787" }
+                    ]
+                }
+                """;
+        server.enqueue(new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON).setBody(folders)
+                .setBodyDelay(300, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON).setBody(folders));
+
+        var config = Config.builder()
+                .addSource(ConfigSources.create(Map.of("cache.enabled", "true", "cache.ttl-millis", "60000")))
+                .build();
+        var service = new CatalogService(client, config, Clock.systemUTC());
+
+        var now = Instant.now();
+        var stale = service.getFolders("felles", now, 10).collectList().toStage().toCompletableFuture();
+        server.takeRequest();
+        service.invalidate("/felles/ds");
+
+        // Not coalesced with the call that started before the invalidation.
+        var fresh = service.getFolders("felles", now, 10).collectList().toStage().toCompletableFuture();
+        assertThat(fresh.get()).hasSize(1);
+        assertThat(stale.get()).hasSize(1);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+
+        // Only the listing made after the invalidation was cached.
+        assertThat(service.getFolders("felles", now, 10).collectList().await()).hasSize(1);
+        assertThat(server.getRequestCount()).isEqualTo(2);
+        assertThat(service.getCache().hits()).isEqualTo(1);
+    }
+
     @Test
     void testPrefixNotFound() throws ExecutionException, InterruptedException {
         server.enqueue(new MockResponse()
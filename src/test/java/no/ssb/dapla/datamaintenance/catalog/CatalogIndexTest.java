@@ -0,0 +1,88 @@
+package no.ssb.dapla.datamaintenance.catalog;
+
+import no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CatalogIndexTest {
+
+    private CatalogIndex index;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        index = new CatalogIndex(Clock.systemUTC(), Duration.ofMinutes(10));
+        now = Instant.now();
+        index.apply("/", List.of(Identifier.of("/felles", 1L), Identifier.of("/kilde", 2L)), List.of(), now);
+        index.apply("/felles", List.of(Identifier.of("/felles/a", 3L)),
+                List.of(Identifier.of("/felles/ds1", 4L), Identifier.of("/felles/ds2", 5L)), now);
+        index.apply("/felles/a", List.of(), List.of(Identifier.of("/felles/a/ds", 6L)), now);
+    }
+
+    @Test
+    void testListings() {
+        assertThat(index.folders("/felles")).contains(List.of(Identifier.of("/felles/a", 3L)));
+        assertThat(index.datasets("felles/")).contains(List.of(
+                Identifier.of("/felles/ds1", 4L), Identifier.of("/felles/ds2", 5L)));
+        // Never listed.
+        assertThat(index.folders("/kilde")).isEmpty();
+    }
+
+    @Test
+    void testExistence() {
+        assertThat(index.exists("/felles/ds1")).contains(true);
+        assertThat(index.exists("/felles/missing")).contains(false);
+        assertThat(index.exists("/kilde/unknown")).isEmpty();
+
+        assertThat(index.isOnlyDataset("/felles/a/ds")).contains(true);
+        assertThat(index.isOnlyDataset("/felles/a")).contains(true);
+        assertThat(index.isOnlyDataset("/felles")).contains(false);
+    }
+
+    @Test
+    void testRefreshRemovesChildren() {
+        index.apply("/felles", List.of(), List.of(Identifier.of("/felles/ds1", 7L)), now);
+
+        assertThat(index.exists("/felles/a")).contains(false);
+        assertThat(index.datasets("/felles")).contains(List.of(Identifier.of("/felles/ds1", 7L)));
+    }
+
+    @Test
+    void testComplete() {
+        assertThat(index.complete("/felles/d", 10)).contains(List.of("/felles/ds1", "/felles/ds2"));
+        assertThat(index.complete("/felles/d", 1)).contains(List.of("/felles/ds1"));
+        assertThat(index.complete("/felles/", 10)).contains(List.of("/felles/a", "/felles/ds1", "/felles/ds2"));
+        assertThat(index.complete("/fel", 10)).contains(List.of("/felles"));
+    }
+
+    @Test
+    void testDatasetUnderStaleParentFallsBack() {
+        index.apply("/kilde", List.of(), List.of(Identifier.of("/kilde/ds", 8L)), now.minus(Duration.ofHours(1)));
+
+        assertThat(index.isOnlyDataset("/kilde/ds")).isEmpty();
+        assertThat(index.isOnlyDataset("/kilde")).isEmpty();
+    }
+
+    @Test
+    void testStaleAndInvalidatedNodesFallBack() {
+        index.apply("/kilde", List.of(), List.of(Identifier.of("/kilde/ds", 8L)), now.minus(Duration.ofHours(1)));
+        assertThat(index.datasets("/kilde")).isEmpty();
+        assertThat(index.exists("/kilde/ds")).isEmpty();
+
+        index.invalidate("/felles/ds1");
+        assertThat(index.datasets("/felles")).isEmpty();
+        assertThat(index.exists("/felles/ds1")).isEmpty();
+        assertThat(index.datasets("/felles/a")).isEqualTo(Optional.of(List.of(Identifier.of("/felles/a/ds", 6L))));
+
+        index.apply("/felles", List.of(Identifier.of("/felles/a", 3L)), List.of(Identifier.of("/felles/ds2", 5L)), now);
+        assertThat(index.exists("/felles/ds1")).contains(false);
+    }
+}
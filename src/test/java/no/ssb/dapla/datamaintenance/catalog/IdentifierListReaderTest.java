@@ -0,0 +1,60 @@
+package no.ssb.dapla.datamaintenance.catalog;
+
+import no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdentifierListReaderTest {
+
+    private static IdentifierListReader reader(String json) throws IOException {
+        return new IdentifierListReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testReadEntries() throws IOException {
+        var reader = reader("""
+                {
+                    "cursor": null,
+                    "other": { "nested": [1, 2] },
+                    "entries": [
+                        { "path": "/foo/bar", "timestamp": "1610617128787" },
+                        { "timestamp": 1604071017000, "extra": [ {} ], "path": "/foo/bar" }
+                    ]
+                }
+                """);
+        var identifiers = new ArrayList<Identifier>();
+        reader.forEachRemaining(identifiers::add);
+
+        assertThat(identifiers).containsExactly(
+                Identifier.of("/foo/bar", 1610617128787L),
+                Identifier.of("/foo/bar", 1604071017000L)
+        );
+    }
+
+    @Test
+    void testNoEntries() throws IOException {
+        assertThat(reader("{}").hasNext()).isFalse();
+    }
+
+    @Test
+    void testInvalidJson() throws IOException {
+        var reader = reader("{\"entries\": [ { \"path\": ");
+        assertThatThrownBy(reader::hasNext).isInstanceOf(UncheckedIOException.class);
+    }
+
+    @Test
+    void testStream() {
+        var json = "{\"entries\": [{\"path\": \"/a\", \"timestamp\": \"1\"}, {\"path\": \"/a\", \"timestamp\": \"2\"}]}";
+        var identifiers = CatalogService.readIdentifiers(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).collectList().await();
+        assertThat(identifiers).extracting(identifier -> identifier.timestamp).containsExactly(1L, 2L);
+    }
+}
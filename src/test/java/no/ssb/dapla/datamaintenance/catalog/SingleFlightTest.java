@@ -0,0 +1,102 @@
+package no.ssb.dapla.datamaintenance.catalog;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    @Test
+    void testIdenticalCallsShareOneUpstream() throws ExecutionException, InterruptedException {
+        var flights = new SingleFlight<String, String>();
+        var upstream = new CompletableFuture<String>();
+        var calls = new AtomicInteger();
+
+        var first = flights.execute("key", () -> {
+            calls.incrementAndGet();
+            return upstream;
+        }).toCompletableFuture();
+        var second = flights.execute("key", () -> {
+            calls.incrementAndGet();
+            return upstream;
+        }).toCompletableFuture();
+
+        upstream.complete("value");
+
+        assertThat(first.get()).isEqualTo("value");
+        assertThat(second.get()).isEqualTo("value");
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(flights.coalesced()).isEqualTo(1);
+        assertThat(flights.inFlight()).isZero();
+
+        flights.execute("key", () -> CompletableFuture.completedFuture("again"));
+        assertThat(flights.calls()).isEqualTo(2);
+    }
+
+    @Test
+    void testErrorsAreGivenToEveryCaller() {
+        var flights = new SingleFlight<String, String>();
+        var upstream = new CompletableFuture<String>();
+
+        var first = flights.execute("key", () -> upstream).toCompletableFuture();
+        var second = flights.execute("key", () -> upstream).toCompletableFuture();
+        upstream.completeExceptionally(new IllegalStateException("boom"));
+
+        assertThatThrownBy(first::get).hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(second::get).hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(flights.inFlight()).isZero();
+    }
+
+    @Test
+    void testUpstreamIsCancelledWhenTheLastCallerCancels() throws ExecutionException, InterruptedException {
+        var flights = new SingleFlight<String, String>();
+        var upstream = new CompletableFuture<String>();
+
+        var first = flights.execute("key", () -> upstream).toCompletableFuture();
+        var second = flights.execute("key", () -> upstream).toCompletableFuture();
+
+        first.cancel(true);
+        assertThat(upstream).isNotCancelled();
+
+        second.cancel(true);
+        assertThat(upstream).isCancelled();
+        assertThat(flights.inFlight()).isZero();
+
+        var third = flights.execute("key", () -> CompletableFuture.completedFuture("new")).toCompletableFuture();
+        assertThat(third.get()).isEqualTo("new");
+    }
+
+    @Test
+    void testCancellingASubscriberDetachesIt() throws ExecutionException, InterruptedException {
+        var flights = new SingleFlight<String, String>();
+        var upstream = new CompletableFuture<String>();
+
+        var first = CatalogService.cancellable(flights.execute("key", () -> upstream)).toStage().toCompletableFuture();
+        var second = CatalogService.cancellable(flights.execute("key", () -> upstream)).toStage().toCompletableFuture();
+
+        first.cancel(true);
+        assertThat(upstream).isNotCancelled();
+
+        upstream.complete("value");
+        assertThat(second.get()).isEqualTo("value");
+    }
+
+    @Test
+    void testCancellingEverySubscriberCancelsTheUpstream() {
+        var flights = new SingleFlight<String, String>();
+        var upstream = new CompletableFuture<String>();
+
+        var first = CatalogService.cancellable(flights.execute("key", () -> upstream)).toStage().toCompletableFuture();
+        var second = CatalogService.cancellable(flights.execute("key", () -> upstream)).toStage().toCompletableFuture();
+
+        first.cancel(true);
+        second.cancel(true);
+        assertThat(upstream).isCancelled();
+        assertThat(flights.inFlight()).isZero();
+    }
+}
@@ -0,0 +1,35 @@
+package no.ssb.dapla.datamaintenance.model;
+
+import no.ssb.dapla.datamaintenance.model.DeleteResponse.DatasetVersion;
+import no.ssb.dapla.datamaintenance.model.DeleteResponse.DeletedFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeleteResponseTest {
+
+    @Test
+    void testFilesOfUnknownSizeAreNotCounted() {
+        var version = Instant.ofEpochMilli(10);
+        var full = new DatasetVersion(version, List.of(
+                new DeletedFile("gs://bucket/file1", 10L),
+                new DeletedFile("gs://bucket/file2", -1L),
+                new DeletedFile("gs://bucket/file3", null)
+        ));
+
+        var summary = new VersionSummary();
+        summary.add(Path.of("/file1"), 10L);
+        summary.add(Path.of("/file2"), -1L);
+        summary.add(Path.of("/file3"), null);
+        var summarized = summary.toDatasetVersion(version);
+
+        assertThat(full.getObjectCount()).isEqualTo(3);
+        assertThat(full.getTotalSize()).isEqualTo(10);
+        assertThat(summarized.getObjectCount()).isEqualTo(3);
+        assertThat(summarized.getTotalSize()).isEqualTo(10);
+    }
+}
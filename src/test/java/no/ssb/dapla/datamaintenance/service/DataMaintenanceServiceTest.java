@@ -1,7 +1,6 @@
 package no.ssb.dapla.datamaintenance.service;
 
 import io.helidon.common.http.Http;
-import io.helidon.common.reactive.Single;
 import io.helidon.security.jwt.Jwt;
 import io.helidon.security.jwt.SignedJwt;
 import io.helidon.security.jwt.jwk.Jwk;
@@ -12,6 +11,9 @@ import no.ssb.dapla.data.access.protobuf.DeleteLocationResponse;
 import no.ssb.dapla.datamaintenance.access.DataAccessService;
 import no.ssb.dapla.datamaintenance.access.ProtobufJsonProvider;
 import no.ssb.dapla.datamaintenance.catalog.CatalogService;
+import no.ssb.dapla.datamaintenance.model.DatasetDeleteError;
+import no.ssb.dapla.datamaintenance.model.DatasetListElement;
+import no.ssb.dapla.datamaintenance.model.DeleteResponse;
 import no.ssb.dapla.datamaintenance.storage.TestableStorageService;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -20,6 +22,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockserver.client.MockServerClient;
 import org.mockserver.junit.jupiter.MockServerExtension;
 import org.mockserver.model.MediaType;
+import org.mockserver.verify.VerificationTimes;
 
 import javax.ws.rs.core.HttpHeaders;
 import java.io.IOException;
@@ -38,6 +41,7 @@ import static no.ssb.dapla.datamaintenance.model.DeleteResponse.DatasetVersion;
 import static no.ssb.dapla.datamaintenance.model.DeleteResponse.DeletedFile;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
 
@@ -48,7 +52,7 @@ class DataMaintenanceServiceTest {
     private TestableStorageService storageService;
     private DataMaintenanceService service;
     private SignedJwt token = SignedJwt.sign(
-            Jwt.builder().jwtId("token")
+            Jwt.builder().jwtId("token").subject("user")
                     .build(), Jwk.NONE_JWK);
 
     @BeforeAll
@@ -78,12 +82,66 @@ class DataMaintenanceServiceTest {
         );
     }
 
+    void mockListing(String kind, String prefix, String... paths) {
+        var entries = Stream.of(paths).map(p -> "{\"path\":\"" + p + "\",\"timestamp\":\"100\"}")
+                .collect(Collectors.joining(","));
+        mockServer.when(request()
+                .withPath("/catalog/" + kind)
+                .withQueryStringParameter("prefix", prefix)
+        ).respond(response()
+                .withBody("{\"entries\": [" + entries + "]}", MediaType.APPLICATION_JSON));
+    }
+
+    @Test
+    void testListSkipsPathCallWhenNotEmpty() throws ExecutionException, InterruptedException {
+        mockListing("folder", "/foo", "/foo/folder");
+        mockListing("dataset", "/foo", "/foo/dataset");
+
+        var elements = service.list("/foo").toCompletableFuture().get();
+
+        assertThat(elements).extracting(DatasetListElement::getPath, DatasetListElement::getDepth)
+                .containsExactly(tuple("/foo/folder", 1), tuple("/foo/dataset", 0));
+        mockServer.verify(request().withPath("/catalog/path"), VerificationTimes.never());
+    }
+
+    @Test
+    void testListNotFound() {
+        mockListing("folder", "/missing");
+        mockListing("dataset", "/missing");
+        mockListing("path", "/missing");
+
+        assertThatThrownBy(() -> service.list("/missing").toCompletableFuture().get())
+                .getCause()
+                .isInstanceOf(HttpException.class)
+                .extracting(throwable -> ((HttpException) throwable).status())
+                .isEqualTo(Http.Status.NOT_FOUND_404);
+        mockServer.verify(request().withPath("/catalog/path"), VerificationTimes.once());
+    }
+
+    @Test
+    void testTree() throws ExecutionException, InterruptedException {
+        mockListing("folder", "/foo", "/foo/a");
+        mockListing("dataset", "/foo", "/foo/ds");
+        mockListing("folder", "/foo/a", "/foo/a/b");
+        mockListing("dataset", "/foo/a");
+        mockListing("folder", "/foo/a/b");
+        mockListing("dataset", "/foo/a/b", "/foo/a/b/ds");
+
+        assertThat(service.tree("/foo", null).toCompletableFuture().get())
+                .extracting(DatasetListElement::getPath)
+                .containsExactly("/foo/ds", "/foo/a", "/foo/a/b", "/foo/a/b/ds");
+
+        assertThat(service.tree("/foo", 1).toCompletableFuture().get())
+                .extracting(DatasetListElement::getPath)
+                .containsExactly("/foo/ds", "/foo/a");
+    }
+
     void mockVersion(String path, Integer... versions) {
         var entries = Stream.of(versions).map(l -> "{\"path\":\"" + path + "\",\"timestamp\":\"" + l + "\"}")
                 .collect(Collectors.joining(","));
         mockServer.when(request()
                 .withPath("/catalog/version")
-                .withQueryStringParameter("path", "/foo/bar")
+                .withQueryStringParameter("path", path)
         ).respond(response()
                 .withBody("{\"entries\": [" + entries + "]" +
                           "}\n", MediaType.APPLICATION_JSON));
@@ -191,6 +249,81 @@ class DataMaintenanceServiceTest {
         assertThat(delete.getTotalSize()).isEqualTo(164L);
     }
 
+    @Test
+    void testDeleteSummary() throws ExecutionException, InterruptedException, IOException {
+
+        mockPathRequest("/foo/bar");
+        mockVersion("/foo/bar", 50, 25);
+        mockAuthorizedDeleteToken("/foo/bar", Map.of(
+                50, "gs://summary50/prefix50",
+                25, "gs://summary25/prefix25"
+        ));
+        mockFile("summary50", "/prefix50/foo/bar/50/file1", "/prefix50/foo/bar/50/file2");
+        mockFile("summary25", "/prefix25/foo/bar/25/file1", "/prefix25/foo/bar/25/baz/file2");
+
+        var delete = service.delete("/foo/bar", true, "summary", token.tokenContent())
+                .toCompletableFuture()
+                .get();
+
+        assertThat(delete.getDeletedVersions())
+                .extracting(DatasetVersion::getTimestamp, DatasetVersion::getObjectCount, DatasetVersion::getTotalSize)
+                .containsExactlyInAnyOrder(
+                        tuple(Instant.ofEpochMilli(50), 3L, 52L),
+                        tuple(Instant.ofEpochMilli(25), 3L, 56L)
+                );
+        assertThat(delete.getDeletedVersions()).allSatisfy(version -> {
+            assertThat(version.getDeletedFiles()).isEmpty();
+            assertThat(version.getLargestFiles()).hasSize(3);
+        });
+        assertThat(delete.getTotalSize()).isEqualTo(108L);
+        assertThat(delete.getDryRun()).isTrue();
+    }
+
+    @Test
+    void testDeleteTree() throws ExecutionException, InterruptedException, IOException {
+        mockListing("folder", "/foo", "/foo/a");
+        mockListing("dataset", "/foo", "/foo/ds");
+        mockListing("folder", "/foo/a");
+        mockListing("dataset", "/foo/a", "/foo/a/denied");
+        mockVersion("/foo/ds", 50);
+        mockVersion("/foo/a/denied", 25);
+        mockAuthorizedDeleteToken("/foo/ds", Map.of(50, "gs://tree50/prefix50"));
+        mockUnauthorizedDeleteToken("/foo/a/denied", Map.of(25, "gs://tree25/prefix25"));
+        mockFile("tree50", "/prefix50/foo/ds/50/file1");
+
+        var delete = service.deleteTree("/foo", true, "summary", token.tokenContent())
+                .toCompletableFuture()
+                .get();
+
+        assertThat(delete.getDatasets()).extracting(DeleteResponse::getDatasetPath).containsExactly("/foo/ds");
+        assertThat(delete.getErrors())
+                .extracting(DatasetDeleteError::getDatasetPath, DatasetDeleteError::getStatus)
+                .containsExactly(tuple("/foo/a/denied", 403));
+        assertThat(delete.getDryRun()).isTrue();
+    }
+
+    @Test
+    void testPruneDryRun() throws ExecutionException, InterruptedException, IOException {
+        mockVersion("/foo/bar", 50, 25, 10);
+        mockAuthorizedDeleteToken("/foo/bar", Map.of(
+                25, "gs://prune25/prefix25",
+                10, "gs://prune10/prefix10"
+        ));
+        mockFile("prune25", "/prefix25/foo/bar/25/file1");
+        mockFile("prune10", "/prefix10/foo/bar/10/file1");
+
+        var prune = service.prune("/foo/bar", 1, null, false, true, "summary", token.tokenContent())
+                .toCompletableFuture()
+                .get();
+
+        assertThat(prune.getErrors()).isEmpty();
+        assertThat(prune.getDatasets()).hasSize(1);
+        assertThat(prune.getDatasets().get(0).getDeletedVersions())
+                .extracting(DatasetVersion::getTimestamp)
+                .containsExactlyInAnyOrder(Instant.ofEpochMilli(25), Instant.ofEpochMilli(10));
+        assertThat(prune.getTotalSize()).isEqualTo(52L);
+    }
+
     @Test
     void testDeleteWithDatasetAndFolderConflict() {
         mockServer.when(request()
@@ -212,7 +345,10 @@ class DataMaintenanceServiceTest {
                 }
                 """).withHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON));
 
-        assertThatThrownBy(() -> service.delete("/foo/datasetAndFolder", false, token.tokenContent()))
+        assertThatThrownBy(() -> service.delete("/foo/datasetAndFolder", false, token.tokenContent())
+                .toCompletableFuture().get())
+                .isInstanceOf(ExecutionException.class)
+                .getCause()
                 .isInstanceOf(HttpException.class)
                 .hasMessage("the path /foo/datasetAndFolder is both a dataset and a folder. " +
                             "You must delete the folder to be able to delete the dataset.")
@@ -236,7 +372,9 @@ class DataMaintenanceServiceTest {
         mockFile("bucket25", "/foo/bar/25/file1", "/foo/bar/25/baz/file2");
         mockFile("bucket10", "/foo/bar/10/file1", "/foo/bar/10/baz/file2");
 
-        assertThatThrownBy(() -> Single.create(service.delete("/foo/bar", false, token.tokenContent())).await())
+        assertThatThrownBy(() -> service.delete("/foo/bar", false, token.tokenContent()).toCompletableFuture().get())
+                .isInstanceOf(ExecutionException.class)
+                .getCause()
                 .hasMessageContaining("missing delete access for versions")
                 .hasMessageContaining("/foo/bar, 1970-01-01T00:00:00.025Z")
                 .hasMessageContaining("/foo/bar, 1970-01-01T00:00:00.010Z")
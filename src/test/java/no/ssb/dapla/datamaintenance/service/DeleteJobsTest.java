@@ -0,0 +1,118 @@
+package no.ssb.dapla.datamaintenance.service;
+
+import io.helidon.common.http.Http;
+import io.helidon.common.reactive.Single;
+import io.helidon.webserver.HttpException;
+import no.ssb.dapla.datamaintenance.model.DeleteJobStatus.State;
+import no.ssb.dapla.datamaintenance.model.DeleteResponse;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeleteJobsTest {
+
+    private static DeleteResponse response(String path) {
+        return new DeleteResponse(path, List.of(), true);
+    }
+
+    @Test
+    void testJobsWaitForAWorker() {
+        var jobs = new DeleteJobs(1, 10, Clock.systemUTC());
+        var first = new CompletableFuture<DeleteResponse>();
+        var second = new CompletableFuture<DeleteResponse>();
+
+        var firstJob = jobs.submit("user", "/foo", true, progress -> {
+            progress.setVersions(2);
+            progress.onObject(10L);
+            progress.onVersion();
+            return Single.create(first);
+        });
+        var secondJob = jobs.submit("user", "/bar", true, progress -> Single.create(second));
+
+        var running = jobs.status("user", firstJob.getId()).orElseThrow();
+        assertThat(running.getState()).isEqualTo(State.RUNNING);
+        assertThat(running.getVersions()).isEqualTo(2);
+        assertThat(running.getVersionsProcessed()).isEqualTo(1);
+        assertThat(running.getBytesFreed()).isEqualTo(10);
+        assertThat(jobs.status("user", secondJob.getId()).orElseThrow().getState()).isEqualTo(State.QUEUED);
+
+        first.complete(response("/foo"));
+
+        var done = jobs.status("user", firstJob.getId()).orElseThrow();
+        assertThat(done.getState()).isEqualTo(State.SUCCEEDED);
+        assertThat(done.getResult()).isEqualTo(response("/foo"));
+        assertThat(jobs.status("user", secondJob.getId()).orElseThrow().getState()).isEqualTo(State.RUNNING);
+
+        second.completeExceptionally(new HttpException("denied"));
+
+        var failed = jobs.status("user", secondJob.getId()).orElseThrow();
+        assertThat(failed.getState()).isEqualTo(State.FAILED);
+        assertThat(failed.getError()).isEqualTo("denied");
+        assertThat(failed.getResult()).isNull();
+    }
+
+    @Test
+    void testCancel() {
+        var jobs = new DeleteJobs(1, 10, Clock.systemUTC());
+        var cancelled = new AtomicBoolean();
+        var job = jobs.submit("user", "/foo", false, progress ->
+                Single.create(new CompletableFuture<DeleteResponse>()).onCancel(() -> cancelled.set(true)));
+
+        assertThat(jobs.cancel("user", job.getId()).orElseThrow().getState()).isEqualTo(State.CANCELLED);
+        assertThat(cancelled).isTrue();
+        assertThat(jobs.cancel("user", "missing")).isEmpty();
+
+        // The worker is free again.
+        var next = jobs.submit("user", "/bar", false, progress -> Single.just(response("/bar")));
+        assertThat(jobs.status("user", next.getId()).orElseThrow().getState()).isEqualTo(State.SUCCEEDED);
+    }
+
+    @Test
+    void testJobsAreOnlyVisibleToTheirOwner() {
+        var jobs = new DeleteJobs(1, 10, Clock.systemUTC());
+        var job = jobs.submit("user", "/foo", true, progress -> Single.create(new CompletableFuture<>()));
+
+        assertThat(jobs.status("other", job.getId())).isEmpty();
+        assertThat(jobs.cancel("other", job.getId())).isEmpty();
+        assertThat(jobs.list("other")).isEmpty();
+        assertThat(jobs.status("user", job.getId()).orElseThrow().getState()).isEqualTo(State.RUNNING);
+    }
+
+    @Test
+    void testCannotCancelOnceMarkingStarted() {
+        var jobs = new DeleteJobs(1, 10, Clock.systemUTC());
+        var job = jobs.submit("user", "/foo", false, progress -> {
+            progress.startMarking();
+            return Single.create(new CompletableFuture<>());
+        });
+
+        assertThatThrownBy(() -> jobs.cancel("user", job.getId()))
+                .isInstanceOf(HttpException.class)
+                .extracting(throwable -> ((HttpException) throwable).status())
+                .isEqualTo(Http.Status.CONFLICT_409);
+        assertThat(jobs.status("user", job.getId()).orElseThrow().getState()).isEqualTo(State.RUNNING);
+    }
+
+    @Test
+    void testRegistryIsBounded() {
+        var jobs = new DeleteJobs(2, 2, Clock.systemUTC());
+        var finished = jobs.submit("user", "/done", true, progress -> Single.just(response("/done")));
+        jobs.submit("user", "/slow", true, progress -> Single.create(new CompletableFuture<>()));
+
+        // The finished job makes room.
+        jobs.submit("user", "/other", true, progress -> Single.create(new CompletableFuture<>()));
+        assertThat(jobs.status("user", finished.getId())).isEmpty();
+        assertThat(jobs.list("user")).hasSize(2);
+        assertThat(jobs.list("other")).isEmpty();
+
+        assertThatThrownBy(() -> jobs.submit("user", "/more", true, progress -> Single.just(response("/more"))))
+                .isInstanceOf(HttpException.class)
+                .hasMessage("too many delete jobs, try again later");
+    }
+}
@@ -0,0 +1,100 @@
+package no.ssb.dapla.datamaintenance.service;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NdJsonWriterTest {
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Flow.Subscription subscription = new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+            requested.addAndGet(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.set(true);
+        }
+    };
+
+    private static class RecordingOutput extends ChunkedOutput<String> {
+        private final List<String> lines = new ArrayList<>();
+        private boolean failing;
+        private boolean closed;
+
+        RecordingOutput() {
+            super(String.class, "\n");
+        }
+
+        @Override
+        public void write(String chunk) throws IOException {
+            if (failing) {
+                throw new IOException("connection reset");
+            }
+            lines.add(chunk);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    void testLinesAreRequestedInBatches() {
+        var output = new RecordingOutput();
+        var writer = new NdJsonWriter(output);
+        writer.onSubscribe(subscription);
+        assertThat(requested).hasValue(NdJsonWriter.BATCH_SIZE);
+
+        for (int i = 0; i < NdJsonWriter.BATCH_SIZE - 1; i++) {
+            writer.onNext("line" + i);
+        }
+        assertThat(requested).hasValue(NdJsonWriter.BATCH_SIZE);
+        assertThat(writer.started().toCompletableFuture()).isCompletedWithValue(output);
+
+        writer.onNext("last");
+        assertThat(requested).hasValue(2 * NdJsonWriter.BATCH_SIZE);
+
+        writer.onComplete();
+        assertThat(output.lines).hasSize(NdJsonWriter.BATCH_SIZE);
+        assertThat(output.closed).isTrue();
+    }
+
+    @Test
+    void testFailedWriteCancelsUpstream() {
+        var output = new RecordingOutput();
+        var writer = new NdJsonWriter(output);
+        writer.onSubscribe(subscription);
+        writer.onNext("first");
+
+        output.failing = true;
+        writer.onNext("second");
+
+        assertThat(cancelled).isTrue();
+        assertThat(output.closed).isTrue();
+        assertThat(output.lines).containsExactly("first");
+    }
+
+    @Test
+    void testErrorBeforeTheFirstLineFailsTheStart() {
+        var output = new RecordingOutput();
+        var writer = new NdJsonWriter(output);
+        writer.onSubscribe(subscription);
+        writer.onError(new IllegalStateException("boom"));
+
+        assertThat(writer.started().toCompletableFuture()).isCompletedExceptionally();
+        assertThat(output.closed).isFalse();
+    }
+}
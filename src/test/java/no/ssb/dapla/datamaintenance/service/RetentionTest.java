@@ -0,0 +1,60 @@
+package no.ssb.dapla.datamaintenance.service;
+
+import io.helidon.webserver.HttpException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static no.ssb.dapla.datamaintenance.catalog.CatalogClient.Identifier;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetentionTest {
+
+    private static final List<Identifier> VERSIONS = List.of(version(10), version(40), version(30), version(20));
+
+    private static Identifier version(long timestamp) {
+        var identifier = new Identifier();
+        identifier.path = "/ds";
+        identifier.timestamp = timestamp;
+        return identifier;
+    }
+
+    private static List<Long> select(Retention retention) {
+        return retention.select(VERSIONS).stream().map(identifier -> identifier.timestamp)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testKeepLast() {
+        assertThat(select(new Retention(2, null))).containsExactly(20L, 10L);
+        assertThat(select(new Retention(10, null))).isEmpty();
+    }
+
+    @Test
+    void testOlderThan() {
+        assertThat(select(new Retention(null, Instant.ofEpochMilli(30)))).containsExactly(20L, 10L);
+    }
+
+    @Test
+    void testKeepLastAndOlderThan() {
+        // The newest version is kept even though it is old.
+        assertThat(select(new Retention(1, Instant.ofEpochMilli(100)))).containsExactly(30L, 20L, 10L);
+        assertThat(select(new Retention(1, Instant.ofEpochMilli(25)))).containsExactly(20L, 10L);
+    }
+
+    @Test
+    void testParse() {
+        var now = Instant.parse("2021-01-31T00:00:00Z");
+        assertThat(select(Retention.parse(null, "1970-01-01T00:00:00.030Z", now))).containsExactly(20L, 10L);
+        assertThat(select(Retention.parse(null, "P30D", now))).containsExactly(40L, 30L, 20L, 10L);
+
+        assertThatThrownBy(() -> Retention.parse(null, null, now)).isInstanceOf(HttpException.class);
+        assertThatThrownBy(() -> Retention.parse(0, null, now)).isInstanceOf(HttpException.class);
+        assertThatThrownBy(() -> Retention.parse(null, "yesterday", now))
+                .isInstanceOf(HttpException.class)
+                .hasMessage("invalid older-than yesterday, must be an instant or a duration");
+    }
+}
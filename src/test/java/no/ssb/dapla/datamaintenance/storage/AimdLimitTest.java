@@ -0,0 +1,48 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AimdLimitTest {
+
+    @Test
+    void testLimitIsHalvedOncePerCoolDownAndGrowsBack() {
+        var executor = new LimitedExecutor(Runnable::run, 16);
+        var now = new AtomicLong();
+        var limit = new AimdLimit(executor, 1, 20, 1000, now::get);
+
+        limit.onThrottled();
+        limit.onThrottled();
+        assertThat(executor.getLimit()).isEqualTo(8);
+
+        now.addAndGet(1000);
+        limit.onThrottled();
+        assertThat(executor.getLimit()).isEqualTo(4);
+
+        for (int i = 0; i < 4; i++) {
+            limit.onSuccess();
+        }
+        assertThat(executor.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    void testLimitStaysWithinBounds() {
+        var executor = new LimitedExecutor(Runnable::run, 2);
+        var now = new AtomicLong();
+        var limit = new AimdLimit(executor, 1, 3, 0, now::get);
+
+        for (int i = 0; i < 5; i++) {
+            limit.onThrottled();
+            now.incrementAndGet();
+        }
+        assertThat(executor.getLimit()).isEqualTo(1);
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSuccess();
+        }
+        assertThat(executor.getLimit()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,126 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchDeleteEngineTest {
+
+    private static List<PathAndSize> objects(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new PathAndSize(Path.of("/foo/bar/file" + i), (long) i))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    void testObjectsAreDeletedInBatches() throws IOException {
+        var deleter = new FakeDeleter(Set.of());
+        var engine = new BatchDeleteEngine(100, 3);
+
+        var deleted = engine.delete(deleter, objects(250)).getDeleted();
+
+        assertThat(deleted).containsExactlyInAnyOrderElementsOf(objects(250));
+        assertThat(deleter.batchSizes).containsExactly(100, 100, 50);
+        assertThat(engine.requests()).isEqualTo(3);
+    }
+
+    @Test
+    void testOnlyFailedEntriesAreRetried() throws IOException {
+        var deleter = new FakeDeleter(Set.of(Path.of("/foo/bar/file3"), Path.of("/foo/bar/file7")));
+        var engine = new BatchDeleteEngine(100, 3);
+
+        var deleted = engine.delete(deleter, objects(10)).getDeleted();
+
+        assertThat(deleted).containsExactlyInAnyOrderElementsOf(objects(10));
+        assertThat(deleter.batchSizes).containsExactly(10, 2);
+        assertThat(engine.retries()).isEqualTo(2);
+    }
+
+    @Test
+    void testFailsAfterMaxAttempts() {
+        var deleter = new FakeDeleter(Set.of(Path.of("/foo/bar/file3")));
+        deleter.failForever = true;
+        var engine = new BatchDeleteEngine(100, 2);
+
+        assertThatThrownBy(() -> engine.delete(deleter, objects(10)))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("could not delete 1 objects after 2 attempts");
+    }
+
+    @Test
+    void testThrottledEntriesAreReturnedForALaterAttempt() throws IOException {
+        var deleter = new FakeDeleter(Set.of(Path.of("/foo/bar/file3")));
+        deleter.failure = BatchDeleter.Outcome.THROTTLED;
+        var engine = new BatchDeleteEngine(100, 3);
+
+        var first = engine.delete(deleter, objects(10));
+
+        assertThat(first.getDeleted()).hasSize(9);
+        assertThat(first.getThrottled()).extracting(PathAndSize::getPath).containsExactly(Path.of("/foo/bar/file3"));
+        assertThat(first.getNextAttempt()).isEqualTo(2);
+        assertThat(deleter.batchSizes).containsExactly(10);
+
+        var second = engine.delete(deleter, first.getThrottled(), first.getNextAttempt());
+
+        assertThat(second.getDeleted()).extracting(PathAndSize::getPath).containsExactly(Path.of("/foo/bar/file3"));
+        assertThat(second.getThrottled()).isEmpty();
+    }
+
+    @Test
+    void testThrottledEntriesFailAfterMaxAttempts() {
+        var deleter = new FakeDeleter(Set.of(Path.of("/foo/bar/file3")));
+        deleter.failure = BatchDeleter.Outcome.THROTTLED;
+        var engine = new BatchDeleteEngine(100, 2);
+
+        assertThatThrownBy(() -> engine.delete(deleter, objects(10), 2))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("could not delete 1 objects after 2 attempts");
+    }
+
+    @Test
+    void testChunk() {
+        var chunks = new ArrayList<List<Integer>>();
+        BatchDeleteEngine.chunk(List.of(1, 2, 3, 4, 5).iterator(), 2).forEachRemaining(chunks::add);
+        assertThat(chunks).containsExactly(List.of(1, 2), List.of(3, 4), List.of(5));
+    }
+
+    /**
+     * Fails the given paths on the first attempt only, unless failForever is set.
+     */
+    private static class FakeDeleter implements BatchDeleter {
+
+        private final Set<Path> failing;
+        private final Set<Path> failedOnce = new HashSet<>();
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private boolean failForever = false;
+        private Outcome failure = Outcome.FAILED;
+
+        private FakeDeleter(Set<Path> failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public List<Outcome> delete(List<Path> paths) {
+            batchSizes.add(paths.size());
+            var outcomes = new ArrayList<Outcome>();
+            for (Path path : paths) {
+                if (failing.contains(path) && (failForever || failedOnce.add(path))) {
+                    outcomes.add(failure);
+                } else {
+                    outcomes.add(Outcome.DELETED);
+                }
+            }
+            return outcomes;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package no.ssb.dapla.datamaintenance.storage;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageBatchResult;
+import com.google.cloud.storage.StorageException;
+import com.google.cloud.storage.contrib.nio.CloudStorageFileSystem;
+import no.ssb.dapla.datamaintenance.storage.BatchDeleter.Outcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GcsBatchDeleterTest {
+
+    private final CloudStorageFileSystem fileSystem = CloudStorageFileSystem.forBucket("bucket");
+    private Storage storage;
+    private StorageBatch batch;
+
+    @BeforeEach
+    void setUp() {
+        storage = mock(Storage.class);
+        batch = mock(StorageBatch.class);
+        when(storage.batch()).thenReturn(batch);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Path result(String name, Boolean deleted, StorageException error) {
+        StorageBatchResult<Boolean> result = mock(StorageBatchResult.class);
+        if (error != null) {
+            when(result.get()).thenThrow(error);
+        } else {
+            when(result.get()).thenReturn(deleted);
+        }
+        when(batch.delete(BlobId.of("bucket", name))).thenReturn(result);
+        return fileSystem.getPath("/" + name);
+    }
+
+    @Test
+    void testPathIsMappedToBlobId() {
+        assertThat(GcsBatchDeleter.toBlobId(fileSystem.getPath("/foo/bar/file")))
+                .isEqualTo(BlobId.of("bucket", "foo/bar/file"));
+    }
+
+    @Test
+    void testEntriesAreMappedToOutcomes() throws IOException {
+        var paths = List.of(
+                result("deleted", true, null),
+                result("missing", false, null),
+                result("throttled", null, new StorageException(429, "rate limited")),
+                result("unavailable", null, new StorageException(503, "backend error")),
+                result("forbidden", null, new StorageException(403, "forbidden"))
+        );
+
+        var outcomes = new GcsBatchDeleter(storage).delete(paths);
+
+        assertThat(outcomes).containsExactly(Outcome.DELETED, Outcome.NOT_FOUND, Outcome.THROTTLED,
+                Outcome.THROTTLED, Outcome.FAILED);
+    }
+
+    @Test
+    void testFailedBatchRequestIsAnIOException() {
+        var paths = List.of(result("file", true, null));
+        doThrow(new StorageException(500, "connection reset")).when(batch).submit();
+
+        assertThatThrownBy(() -> new GcsBatchDeleter(storage).delete(paths))
+                .isInstanceOf(IOException.class)
+                .hasCauseInstanceOf(StorageException.class);
+    }
+}
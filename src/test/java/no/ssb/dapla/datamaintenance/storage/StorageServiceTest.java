@@ -1,12 +1,30 @@
 package no.ssb.dapla.datamaintenance.storage;
 
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.OAuth2Credentials;
+import io.helidon.config.Config;
+import io.helidon.config.ConfigSources;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 class StorageServiceTest {
 
@@ -64,4 +82,222 @@ class StorageServiceTest {
         );
     }
 
-}
\ No newline at end of file
+    @Test
+    void testFileSystemIsReusedForSameBucketAndCredentials() throws IOException {
+        var service = new TestableStorageService();
+        var credentials = OAuth2Credentials.create(new AccessToken("token",
+                Date.from(Instant.now().plusSeconds(3600))));
+
+        var first = service.setupFileSystem(URI.create("gs://bucket-1/foo"), credentials);
+        var second = service.setupFileSystem(URI.create("gs://bucket-1/bar"), credentials);
+        var otherBucket = service.setupFileSystem(URI.create("gs://bucket-2/foo"), credentials);
+
+        assertThat(second).isSameAs(first);
+        assertThat(otherBucket).isNotSameAs(first);
+        assertThat(service.getFileSystemPool().cache().hits()).isEqualTo(1);
+        assertThat(service.getFileSystemPool().cache().misses()).isEqualTo(2);
+    }
+
+    @Test
+    void testFileSystemIsEvictedWhenTokenExpires() throws IOException {
+        var now = Instant.parse("2021-01-01T00:00:00Z");
+        var clock = new Clock() {
+            Instant instant = now;
+
+            @Override
+            public java.time.ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(java.time.ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return instant;
+            }
+        };
+        var pool = new ClientPool<FileSystem>(2, clock);
+        var credentials = OAuth2Credentials.create(new AccessToken("token",
+                Date.from(now.plusSeconds(60))));
+        var service = new TestableStorageService();
+
+        var first = pool.get("bucket", credentials, () -> service.getFileSystem("bucket"));
+        assertThat(pool.get("bucket", credentials, () -> service.getFileSystem("bucket"))).isSameAs(first);
+
+        clock.instant = now.plusSeconds(61);
+        pool.get("bucket", credentials, () -> service.getFileSystem("bucket"));
+
+        assertThat(pool.cache().evictions()).isEqualTo(1);
+        assertThat(pool.cache().size()).isZero();
+    }
+
+    @Test
+    void testDirectMarkerLookupOnlyChecksPrefix() throws IOException {
+        var service = new TestableStorageService();
+        var fs = service.getFileSystem("fake-bucket-2");
+
+        Files.createDirectories(fs.getPath("/foo/bar/baz"));
+        Files.createFile(fs.getPath("/foo/bar/baz/file1"));
+        Files.createFile(fs.getPath("/foo/bar/baz/.DELETED"));
+
+        var prefix = URI.create("gs://fake-bucket-2/foo/bar");
+        assertThat(service.findMarked(prefix, null, ".DELETED", MarkerLookup.DIRECT)
+                .collectList().await()).isEmpty();
+        assertThat(service.findMarked(prefix, null, ".DELETED", MarkerLookup.WALK)
+                .map(Path::toString).collectList().await()).containsExactly("/foo/bar/baz");
+
+        Files.createFile(fs.getPath("/foo/bar/.DELETED"));
+        assertThat(service.findMarked(prefix, null, ".DELETED", MarkerLookup.DIRECT)
+                .map(Path::toString).collectList().await()).containsExactly("/foo/bar");
+    }
+
+    @Test
+    void testFinishDeleteUsesBatchRequests() throws IOException {
+        var service = new TestableStorageService();
+        var fs = service.getFileSystem("fake-bucket-3");
+        Files.createDirectories(fs.getPath("/foo/bar"));
+        for (int i = 0; i < 250; i++) {
+            Files.createFile(fs.getPath("/foo/bar/file" + i));
+        }
+        var prefix = URI.create("gs://fake-bucket-3/foo/bar");
+        service.markDelete(prefix, null, false).await();
+
+        var deleted = service.finishDelete(prefix, null, false).collectList().await();
+
+        assertThat(deleted).hasSize(251);
+        assertThat(service.getBatchDeleteEngine().requests()).isEqualTo(3);
+    }
+
+    @Test
+    void testDryRunReportsSizesFromListing() throws IOException {
+        var service = new TestableStorageService();
+        var fs = service.getFileSystem("fake-bucket-4");
+        Files.createDirectories(fs.getPath("/foo/bar/baz"));
+        Files.write(fs.getPath("/foo/bar/file1"), new byte[10]);
+        Files.write(fs.getPath("/foo/bar/baz/file2"), new byte[20]);
+        var prefix = URI.create("gs://fake-bucket-4/foo/bar");
+        service.markDelete(prefix, null, true).await();
+
+        var listed = service.finishDelete(prefix, null, true).collectList().await();
+
+        assertThat(listed).extracting(pathAndSize -> pathAndSize.getPath().toString(), PathAndSize::getSize)
+                .containsExactlyInAnyOrder(
+                        tuple("/foo/bar/file1", 10L),
+                        tuple("/foo/bar/baz/file2", 20L),
+                        tuple("/foo/bar/.DRYRUNDELETE", 0L)
+                );
+        assertThat(Files.exists(fs.getPath("/foo/bar/.DRYRUNDELETE"))).isFalse();
+        assertThat(Files.exists(fs.getPath("/foo/bar/file1"))).isTrue();
+    }
+
+    @Test
+    void testGcsListingTakesSizesFromThePages() throws IOException {
+        var service = new TestableStorageService();
+        var fs = service.getFileSystem("fake-bucket-6");
+        Files.createDirectories(fs.getPath("/foo/bar/baz"));
+        for (int i = 0; i < 3; i++) {
+            Files.write(fs.getPath("/foo/bar/file" + i), new byte[i]);
+        }
+        Files.write(fs.getPath("/foo/bar/baz/file"), new byte[5]);
+        var storage = service.getStorageOptions(null).getService();
+
+        var lister = new GcsObjectLister(storage, fs.getPath("/foo/bar"), false, 2);
+        var files = new ArrayList<PathAndSize>();
+        lister.forEachRemaining(files::add);
+
+        assertThat(files).extracting(pathAndSize -> pathAndSize.getPath().toString(), PathAndSize::getSize)
+                .containsExactlyInAnyOrder(
+                        tuple("/foo/bar/file0", 0L),
+                        tuple("/foo/bar/file1", 1L),
+                        tuple("/foo/bar/file2", 2L)
+                );
+        assertThat(lister.takeDirectories()).extracting(Path::toString).containsExactly("/foo/bar/baz");
+
+        var recursive = new GcsObjectLister(storage, fs.getPath("/foo/bar"), true, 2);
+        var all = new ArrayList<PathAndSize>();
+        recursive.forEachRemaining(all::add);
+        assertThat(all).extracting(pathAndSize -> pathAndSize.getPath().toString())
+                .contains("/foo/bar/baz/file")
+                .hasSize(4);
+    }
+
+    @Test
+    void testInterruptedDeleteResumesFromJournal(@TempDir Path journalDirectory) throws IOException {
+        var config = Config.builder()
+                .addSource(ConfigSources.create(Map.of("storage.journal.directory", journalDirectory.toString())))
+                .build();
+        var service = new TestableStorageService(Executors.newSingleThreadExecutor(), config);
+        var fs = service.getFileSystem("fake-bucket-5");
+        Files.createDirectories(fs.getPath("/foo/bar"));
+        Files.write(fs.getPath("/foo/bar/file1"), new byte[10]);
+        Files.write(fs.getPath("/foo/bar/file2"), new byte[20]);
+        var prefix = URI.create("gs://fake-bucket-5/foo/bar");
+        service.markDelete(prefix, null, false).await();
+
+        // Simulate a previous attempt that deleted file1 before the pod stopped.
+        var journal = DeleteJournal.open(journalDirectory, fs.getPath("/foo/bar").toUri());
+        journal.recordDeleted(List.of(new PathAndSize(fs.getPath("/foo/bar/file1"), 10L)));
+        journal.close();
+        Files.delete(fs.getPath("/foo/bar/file1"));
+
+        var deleted = service.finishDelete(prefix, null, false).collectList().await();
+
+        assertThat(deleted).extracting(pathAndSize -> pathAndSize.getPath().toString(), PathAndSize::getSize)
+                .containsExactlyInAnyOrder(
+                        tuple("/foo/bar/file1", 10L),
+                        tuple("/foo/bar/file2", 20L),
+                        tuple("/foo/bar/.DELETED", 0L)
+                );
+        assertThat(service.getBatchDeleteEngine().requests()).isEqualTo(1);
+        assertThat(Files.list(journalDirectory)).isEmpty();
+    }
+
+    @Test
+    void testStaleJournalsAreRemoved(@TempDir Path journalDirectory) throws IOException {
+        var now = Instant.now();
+        var stale = DeleteJournal.open(journalDirectory, URI.create("gs://bucket/stale"));
+        stale.close();
+        var staleFile = journalDirectory.resolve(DeleteJournal.fileNameOf(URI.create("gs://bucket/stale")));
+        Files.setLastModifiedTime(staleFile, FileTime.from(now.minus(Duration.ofDays(8))));
+        var recent = DeleteJournal.open(journalDirectory, URI.create("gs://bucket/recent"));
+        recent.close();
+
+        assertThat(DeleteJournal.deleteStale(journalDirectory, Duration.ofDays(7), now)).isEqualTo(1);
+        assertThat(Files.exists(staleFile)).isFalse();
+        assertThat(Files.list(journalDirectory)).hasSize(1);
+    }
+
+    @Test
+    void testShardedListingOnLocalFileSystem(@TempDir Path directory) throws IOException {
+        var version = directory.resolve("foo/bar/1");
+        var expected = new ArrayList<String>();
+        for (String partition : List.of("a=1", "a=2", "a=3")) {
+            Files.createDirectories(version.resolve(partition));
+            for (int i = 0; i < 5; i++) {
+                var file = version.resolve(partition).resolve("part-" + i);
+                Files.write(file, new byte[i]);
+                expected.add(file.toString());
+            }
+        }
+        Files.write(version.resolve("_SUCCESS"), new byte[0]);
+        expected.add(version.resolve("_SUCCESS").toString());
+        expected.add(version.resolve(".DRYRUNDELETE").toString());
+
+        var service = new StorageService(Executors.newFixedThreadPool(4), Config.builder()
+                .addSource(ConfigSources.create(Map.of("storage.listing.parallelism", "3")))
+                .build());
+        var prefix = version.toUri();
+        service.markDelete(prefix, null, true).await();
+
+        var listed = service.finishDelete(prefix, null, true).collectList().await();
+
+        assertThat(listed).extracting(pathAndSize -> pathAndSize.getPath().toString())
+                .containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(listed).filteredOn(pathAndSize -> pathAndSize.getPath().endsWith("part-4"))
+                .extracting(PathAndSize::getSize)
+                .containsOnly(4L);
+    }
+}
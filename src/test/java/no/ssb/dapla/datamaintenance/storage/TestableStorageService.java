@@ -5,10 +5,12 @@ import com.google.cloud.storage.StorageOptions;
 import com.google.cloud.storage.contrib.nio.CloudStorageConfiguration;
 import com.google.cloud.storage.contrib.nio.CloudStorageFileSystem;
 import com.google.cloud.storage.contrib.nio.testing.LocalStorageHelper;
+import io.helidon.config.Config;
 
-import java.io.InputStream;
+import java.net.URI;
 import java.nio.file.FileSystem;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class TestableStorageService extends StorageService {
 
@@ -18,7 +20,15 @@ public class TestableStorageService extends StorageService {
         super(executor);
     }
 
+    public TestableStorageService(Executor executor, Config config) {
+        super(executor, config);
+    }
+
+    /**
+     * LocalStorageHelper is not thread safe, so all calls run on one thread by default.
+     */
     public TestableStorageService() {
+        super(Executors.newSingleThreadExecutor());
     }
 
     @Override
@@ -26,6 +36,14 @@ public class TestableStorageService extends StorageService {
         return STORAGE_OPTIONS;
     }
 
+    /**
+     * LocalStorageHelper does not support batch requests.
+     */
+    @Override
+    BatchDeleter getBatchDeleter(URI prefix, Credentials credentials) {
+        return new PathBatchDeleter();
+    }
+
     public FileSystem getFileSystem(String bucketName) {
         return CloudStorageFileSystem.forBucket(
                 bucketName,